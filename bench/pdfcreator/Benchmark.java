@@ -0,0 +1,105 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+/**
+ * One benchmark of the suite: setUp prepares the input once, run is the
+ * operation that is timed. run returns a number that depends on the work
+ * that was done, the runner adds it up so the JIT can't drop the work.
+ */
+public abstract class Benchmark {
+    private final String name;
+    private final String unit;
+    private final long units;
+
+    /**
+     * Create a new Benchmark instance
+     *
+     * @param name the name in the results, e.g. hocr.dom.500
+     */
+    protected Benchmark(String name) {
+        this(name, null, 0);
+    }
+
+    /**
+     * Create a new Benchmark instance that also reports the time per unit
+     * of work, e.g. per word, to compare sizes of the input
+     *
+     * @param name the name in the results, e.g. hocr.dom.500
+     * @param unit the unit, e.g. word
+     * @param units the number of units of one operation
+     */
+    protected Benchmark(String name, String unit, long units) {
+        this.name = name;
+        this.unit = unit;
+        this.units = units;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the unit of work, or null
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the number of units of one operation
+     */
+    public long getUnits() {
+        return units;
+    }
+
+    /**
+     * Describes the result of the last operation, e.g. the size of the
+     * output; it is printed after the times
+     *
+     * @return the description, or null
+     */
+    public String getReport() {
+        return null;
+    }
+
+    /**
+     * Prepares the input, it isn't timed
+     *
+     * @throws Exception when the input can't be prepared
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * One operation
+     *
+     * @return a number that depends on the result
+     * @throws Exception when the operation fails
+     */
+    public abstract long run() throws Exception;
+
+    /**
+     * Removes what setUp and run created
+     *
+     * @throws Exception when it can't be removed
+     */
+    public void tearDown() throws Exception {
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import gnu.getopt.Getopt;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks of Benchmarks: every benchmark is run for the warmup
+ * time, then for a number of measured iterations. The result of a benchmark
+ * is the median time per operation of its iterations. It is printed with
+ * the time per unit of work when the benchmark has one, and with the bytes
+ * that were allocated per operation on the thread of the runner.
+ *
+ * The results can be saved and compared with the results of an earlier
+ * build: a benchmark that got slower than the tolerance is a regression and
+ * the runner exits with 1. Run it with `ant bench`, the arguments are given
+ * with -Dbench.args="...".
+ */
+public class BenchmarkRunner {
+    private double warmup = 2;
+    private double iterationTime = 1;
+    private int iterations = 5;
+    private double tolerance = 20;
+
+    private long blackhole = 0;
+    private long allocated = 0;
+    private long ops = 0;
+
+    /**
+     * Runs one benchmark
+     *
+     * @param benchmark the benchmark
+     * @return the median nanoseconds per operation
+     * @throws Exception when the benchmark fails
+     */
+    public double run(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+
+        try {
+            measure(benchmark, warmup);
+
+            double[] results = new double[iterations];
+            allocated = 0;
+            ops = 0;
+
+            for (int i = 0 ; i < iterations ; i++) {
+                results[i] = measure(benchmark, iterationTime);
+            }
+
+            Arrays.sort(results);
+
+            return results[iterations / 2];
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /*
+        runs the benchmark for about the given time, at least once, and
+        returns the nanoseconds per operation
+    */
+    private double measure(Benchmark benchmark, double seconds) throws Exception {
+        long budget = (long) (seconds * 1e9);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long elapsed;
+        long n = 0;
+
+        do {
+            blackhole += benchmark.run();
+            n++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+
+        allocated += allocatedBytes() - bytes;
+        ops += n;
+
+        return (double) elapsed / n;
+    }
+
+    /**
+     * @return the bytes allocated per operation in the measured iterations
+     *         of the last run, or -1 when the JVM doesn't count them
+     */
+    public double getAllocatedBytes() {
+        return allocatedBytes() < 0 || ops == 0 ? -1 : (double) allocated / ops;
+    }
+
+    /*
+        the bytes allocated by the current thread so far, -1 when the JVM
+        doesn't count them
+    */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the results of an earlier run
+     *
+     * @param file lines "name nanoseconds"
+     * @return the nanoseconds per operation of every benchmark
+     * @throws IOException when the file can't be read
+     */
+    static Map<String, Double> readResults(File file) throws IOException {
+        Map<String, Double> results = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+
+                if (fields.length == 2 && ! fields[0].startsWith("#")) {
+                    results.put(fields[0], Double.valueOf(fields[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return results;
+    }
+
+    private static void usage() {
+        System.err.println("usage: BenchmarkRunner [options] [regex]");
+        System.err.println();
+        System.err.println("Runs the benchmarks whose name matches the regex (default: all).");
+        System.err.println();
+        System.err.println("options:");
+        System.err.println();
+        System.err.println("  -l            - list the benchmarks\n" +
+                           "  -w seconds    - warmup time of a benchmark (default 2)\n" +
+                           "  -t seconds    - time of a measured iteration (default 1)\n" +
+                           "  -i count      - measured iterations (default 5)\n" +
+                           "  -o file       - save the results\n" +
+                           "  -b file       - compare with the saved results of an earlier build\n" +
+                           "  -r percent    - slowdown that is a regression (default 20)\n");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String out = null;
+        String baseline = null;
+        boolean list = false;
+
+        Getopt g = new Getopt("BenchmarkRunner", args, "b:i:lo:r:t:w:");
+
+        int c;
+        try {
+            while ((c = g.getopt()) != -1) {
+                switch (c) {
+                    case 'b':
+                        baseline = g.getOptarg();
+                        break;
+                    case 'i':
+                        runner.iterations = Integer.parseInt(g.getOptarg());
+                        break;
+                    case 'l':
+                        list = true;
+                        break;
+                    case 'o':
+                        out = g.getOptarg();
+                        break;
+                    case 'r':
+                        runner.tolerance = Double.parseDouble(g.getOptarg());
+                        break;
+                    case 't':
+                        runner.iterationTime = Double.parseDouble(g.getOptarg());
+                        break;
+                    case 'w':
+                        runner.warmup = Double.parseDouble(g.getOptarg());
+                        break;
+                    default:
+                        usage();
+                        break;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            usage();
+        }
+
+        if (runner.iterations < 1) {
+            usage();
+        }
+
+        Pattern filter = g.getOptind() < args.length ? Pattern.compile(args[g.getOptind()]) : null;
+        Map<String, Double> previous = baseline == null ? null : readResults(new File(baseline));
+        PrintWriter results = out == null ? null : new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+
+        List<Benchmark> benchmarks = Benchmarks.all();
+        int regressions = 0;
+
+        try {
+            for (Benchmark benchmark : benchmarks) {
+                if (filter != null && ! filter.matcher(benchmark.getName()).find()) {
+                    continue;
+                }
+
+                if (list) {
+                    System.out.println(benchmark.getName());
+                    continue;
+                }
+
+                double nanos = runner.run(benchmark);
+                String line = String.format(Locale.ROOT, "%-28s %12.3f ms/op %10.1f ops/s",
+                        benchmark.getName(), nanos / 1e6, 1e9 / nanos);
+
+                if (benchmark.getUnit() != null && benchmark.getUnits() > 0) {
+                    line += String.format(Locale.ROOT, " %10.1f ns/%s", nanos / benchmark.getUnits(), benchmark.getUnit());
+                }
+
+                if (runner.getAllocatedBytes() >= 0) {
+                    line += String.format(Locale.ROOT, " %12.0f B/op", runner.getAllocatedBytes());
+                }
+
+                if (benchmark.getReport() != null) {
+                    line += " " + benchmark.getReport();
+                }
+
+                Double before = previous == null ? null : previous.get(benchmark.getName());
+
+                if (before != null) {
+                    double change = 100 * (nanos - before) / before;
+                    line += String.format(Locale.ROOT, " %+7.1f%%", change);
+
+                    if (change > runner.tolerance) {
+                        line += " REGRESSION";
+                        regressions++;
+                    }
+                }
+
+                System.out.println(line);
+
+                if (results != null) {
+                    results.println(String.format(Locale.ROOT, "%s %.1f", benchmark.getName(), nanos));
+                    results.flush();
+                }
+            }
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+
+        //keeps the results of run() alive
+        if (runner.blackhole == 42) {
+            System.err.println();
+        }
+
+        if (regressions > 0) {
+            System.err.println("error: " + regressions + " benchmark(s) more than " + runner.tolerance + "% slower than " + baseline);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.imageio.ImageIO;
+
+/**
+ * The benchmarks of the throughput-critical paths. The HOCR files and page
+ * images are generated with a fixed seed, so every run has the same input:
+ *
+ *   hocr.dom.N / hocr.stream.N  iterate a HOCR page of N words, 50 to
+ *                               100000 words to show that the time per
+ *                               word stays flat
+ *   title.bbox / title.parse    titleExtractBbox and parseTitle of 1000 titles
+ *   title.scan                  HOCRTitle.parse of 1000 titles, one HOCRTitle
+ *                               as the readers use it
+ *   title.bbox.reference        the titleExtractBbox of before HOCRTitle:
+ *                               split on ';' into a map, split the bbox
+ *   layout.N                    lay out the text runs of a page of N words
+ *   metrics.cached / .uncached  the width, ascent and descent of the words of
+ *                               a page, from a FontMetricsCache or the font
+ *   text.N                      write the text runs of a page of N words
+ *   createpdf.N                 create a PDF/A of N pages (JPEG + HOCR)
+ *   createpdf.N.none / .debug   the same with text layer NONE or DEBUG (-l),
+ *                               createpdf.N is TEXT; they report the size of
+ *                               the PDF
+ *   fonts                       PDFFonts.processResource of the test PDFs
+ *   extract                     PDFTextExtract.extract of the test PDFs
+ *
+ * The test PDFs are the ones of the test directory, the runner is started
+ * in the project directory.
+ */
+public class Benchmarks {
+    private static final int[] DENSITIES = { 50, 500, 2000 };
+    private static final int[] HOCR_DENSITIES = { 50, 500, 1000, 2000, 10000, 100000 };
+    private static final int PAGES = 10;
+    private static final int PAGE_WIDTH = 1240;
+    private static final int PAGE_HEIGHT = 1754;
+    private static final String[] WORDS = {
+        "the", "Library", "of", "Ghent", "University", "volume", "page", "café",
+        "manuscript", "1817", "&", "quod", "erat", "demonstrandum", "Zürich", "Œuvres"
+    };
+
+    private static File dir;
+
+    /**
+     * Returns all the benchmarks
+     *
+     * @return the benchmarks
+     * @throws IOException when the input can't be generated
+     */
+    public static List<Benchmark> all() throws IOException {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        for (int words : HOCR_DENSITIES) {
+            benchmarks.add(new HocrBenchmark(words, false));
+            benchmarks.add(new HocrBenchmark(words, true));
+        }
+
+        benchmarks.add(new TitleBenchmark(TitleBenchmark.BBOX));
+        benchmarks.add(new TitleBenchmark(TitleBenchmark.SCAN));
+        benchmarks.add(new TitleBenchmark(TitleBenchmark.PARSE));
+        benchmarks.add(new TitleBenchmark(TitleBenchmark.REFERENCE));
+
+        for (int words : DENSITIES) {
+            benchmarks.add(new LayoutBenchmark(words, false));
+            benchmarks.add(new LayoutBenchmark(words, true));
+        }
+
+        benchmarks.add(new MetricsBenchmark(true));
+        benchmarks.add(new MetricsBenchmark(false));
+
+        benchmarks.add(new CreatePdfBenchmark(PAGES, TextLayerMode.TEXT));
+        benchmarks.add(new CreatePdfBenchmark(PAGES, TextLayerMode.NONE));
+        benchmarks.add(new CreatePdfBenchmark(PAGES, TextLayerMode.DEBUG));
+        benchmarks.add(new FontsBenchmark());
+        benchmarks.add(new ExtractBenchmark());
+
+        return benchmarks;
+    }
+
+    /*
+        the directory of the generated input, removed when the runner exits
+    */
+    static synchronized File getDirectory() throws IOException {
+        if (dir == null) {
+            dir = File.createTempFile("pdfcreator-bench-", "");
+            dir.delete();
+
+            if (! dir.mkdirs()) {
+                throw new IOException("can't create " + dir);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    delete(dir);
+                }
+            });
+        }
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes a HOCR page of lines of 10 words
+     *
+     * @param file the HOCR file
+     * @param words the number of words
+     * @param seed the seed of the words
+     * @throws IOException when the file can't be written
+     */
+    static void writeHocr(File file, int words, long seed) throws IOException {
+        Random random = new Random(seed);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        int lines = (words + 9) / 10;
+        int lineHeight = Math.max(1, (PAGE_HEIGHT - 160) / Math.max(lines, 1));
+
+        try {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<html xmlns='http://www.w3.org/1999/xhtml'><head><title></title></head><body>");
+            out.println("<div class='ocr_page' id='page_1' title='image \"x\"; bbox 0 0 " + PAGE_WIDTH + " " + PAGE_HEIGHT + "; ppageno 0'>");
+
+            int word = 0;
+
+            for (int l = 0 ; l < lines ; l++) {
+                int y1 = 80 + l * lineHeight;
+                int y2 = y1 + Math.max(1, lineHeight * 3 / 4);
+                int x = 80;
+
+                out.print(" <span class='ocr_line' id='line_" + l + "' title='bbox 80 " + y1 + " " + (PAGE_WIDTH - 80) + " " + y2 + "; baseline 0 -6'>");
+
+                for (int w = 0 ; w < 10 && word < words ; w++, word++) {
+                    String text = WORDS[random.nextInt(WORDS.length)];
+                    int width = 10 * text.length() + random.nextInt(20);
+
+                    out.print("<span class='ocrx_word' id='w_" + word + "' title='bbox " + x + " " + y1 + " " + (x + width) + " " + y2
+                            + "; x_wconf " + (80 + random.nextInt(20)) + "'>" + text.replace("&", "&amp;") + "</span> ");
+                    x += width + 12;
+                }
+
+                out.println("</span>");
+            }
+
+            out.println("</div></body></html>");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns a JPEG page of text-like blocks with an sRGB profile and
+     * a resolution of 150 dpi
+     *
+     * @param seed the seed of the blocks
+     * @return the JPEG file data
+     * @throws IOException when the image can't be encoded
+     */
+    static byte[] jpeg(long seed) throws IOException {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(PAGE_WIDTH, PAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+
+        g.setColor(new Color(240, 236, 226));
+        g.fillRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
+        g.setColor(new Color(40, 40, 40));
+
+        for (int y = 80 ; y < PAGE_HEIGHT - 80 ; y += 40) {
+            for (int x = 80 ; x < PAGE_WIDTH - 80 ; ) {
+                int width = 20 + random.nextInt(80);
+                g.fillRect(x, y, Math.min(width, PAGE_WIDTH - 80 - x), 24);
+                x += width + 12;
+            }
+        }
+        g.dispose();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", bytes);
+
+        return withProfile(bytes.toByteArray(), ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData(), 150);
+    }
+
+    /*
+        replaces the JFIF segment with one of the given resolution and adds
+        the profile as an APP2 ICC_PROFILE segment
+    */
+    private static byte[] withProfile(byte[] jpeg, byte[] icc, int dpi) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + icc.length + 64);
+        int pos = 2;
+
+        out.write(0xFF);
+        out.write(0xD8);
+
+        //JFIF 1.01, dots per inch
+        byte[] jfif = { 'J', 'F', 'I', 'F', 0, 1, 1, 1,
+            (byte) (dpi >> 8), (byte) dpi, (byte) (dpi >> 8), (byte) dpi, 0, 0 };
+        segment(out, 0xE0, jfif);
+
+        byte[] app2 = new byte[14 + icc.length];
+        System.arraycopy("ICC_PROFILE".getBytes(), 0, app2, 0, 11);
+        app2[12] = 1;
+        app2[13] = 1;
+        System.arraycopy(icc, 0, app2, 14, icc.length);
+        segment(out, 0xE2, app2);
+
+        //drop the APP0 of ImageIO
+        if ((jpeg[pos + 1] & 0xFF) == 0xE0) {
+            pos += 2 + ((jpeg[pos + 2] & 0xFF) << 8 | (jpeg[pos + 3] & 0xFF));
+        }
+
+        out.write(jpeg, pos, jpeg.length - pos);
+
+        return out.toByteArray();
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] data) {
+        int length = data.length + 2;
+
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(data, 0, data.length);
+    }
+
+    private static List<File> testPdfs() throws IOException {
+        File[] files = new File("test").listFiles();
+        List<File> pdfs = new ArrayList<File>();
+
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".pdf")) {
+                    pdfs.add(file);
+                }
+            }
+        }
+
+        if (pdfs.isEmpty()) {
+            throw new IOException("no test PDFs in " + new File("test").getAbsolutePath());
+        }
+
+        return pdfs;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /*
+        HOCRReader over a page of the given number of words
+    */
+    static class HocrBenchmark extends Benchmark {
+        private final int words;
+        private final boolean streaming;
+        private File file;
+
+        HocrBenchmark(int words, boolean streaming) {
+            super("hocr." + (streaming ? "stream." : "dom.") + words, "word", words);
+            this.words = words;
+            this.streaming = streaming;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            file = new File(getDirectory(), "hocr-" + words + ".html");
+            writeHocr(file, words, words);
+        }
+
+        @Override
+        public long run() throws Exception {
+            HOCRReader reader = new HOCRReader(file, HOCRBoxGranularity.WORD);
+            reader.setStreaming(streaming);
+            long n = 0;
+
+            try {
+                for (HOCRBox box : reader) {
+                    n += box.getX2();
+                }
+            } finally {
+                reader.close();
+            }
+
+            return n;
+        }
+    }
+
+    /*
+        titleExtractBbox, HOCRTitle, parseTitle or the split path of before
+        HOCRTitle, of the titles of 1000 words
+    */
+    static class TitleBenchmark extends Benchmark {
+        static final int BBOX = 0;
+        static final int SCAN = 1;
+        static final int PARSE = 2;
+        static final int REFERENCE = 3;
+
+        private static final String[] NAMES = { "title.bbox", "title.scan", "title.parse", "title.bbox.reference" };
+
+        private final int mode;
+        private final String[] titles = new String[1000];
+        private final HOCRTitle title = new HOCRTitle();
+
+        TitleBenchmark(int mode) {
+            super(NAMES[mode], "title", 1000);
+            this.mode = mode;
+        }
+
+        @Override
+        public void setUp() {
+            Random random = new Random(1000);
+
+            for (int i = 0 ; i < titles.length ; i++) {
+                int x = random.nextInt(PAGE_WIDTH);
+                int y = random.nextInt(PAGE_HEIGHT);
+                titles[i] = "bbox " + x + " " + y + " " + (x + random.nextInt(200)) + " " + (y + random.nextInt(40))
+                        + "; x_wconf " + random.nextInt(100);
+            }
+        }
+
+        @Override
+        public long run() {
+            long n = 0;
+
+            for (String t : titles) {
+                switch (mode) {
+                    case BBOX:
+                        n += HOCRReader.titleExtractBbox(t)[2];
+                        break;
+                    case SCAN:
+                        title.parse(t);
+                        n += title.getX2();
+                        break;
+                    case PARSE:
+                        n += HOCRReader.parseTitle(t).size();
+                        break;
+                    default:
+                        n += referenceExtractBbox(t)[2];
+                        break;
+                }
+            }
+
+            return n;
+        }
+
+        /*
+            titleExtractBbox as it was before HOCRTitle
+        */
+        private static int[] referenceExtractBbox(String value) {
+            Map<String, String> ocrAttributes = HOCRReader.parseTitle(value);
+            String bbox = ocrAttributes.get("bbox");
+
+            String[] strCoords = bbox.split(" ");
+            int[] coords = { Integer.parseInt(strCoords[0]),
+                Integer.parseInt(strCoords[1]),
+                Integer.parseInt(strCoords[2]),
+                Integer.parseInt(strCoords[3]) };
+            return coords;
+        }
+    }
+
+    /*
+        layoutTextBoxes or writeTextBoxes of a page of the given number of
+        words, in runs of lines
+    */
+    static class LayoutBenchmark extends Benchmark {
+        private final int words;
+        private final boolean write;
+        private final PDFCreator creator = new PDFCreator();
+        private Image image;
+        private HOCRLayer layer;
+        private List<PDFTextRun> runs;
+        private Document doc;
+        private PdfWriter writer;
+        private PdfContentByte cb;
+
+        LayoutBenchmark(int words, boolean write) {
+            super((write ? "text." : "layout.") + words);
+            this.words = words;
+            this.write = write;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            File file = new File(getDirectory(), "layout-" + words + ".html");
+            writeHocr(file, words, words);
+
+            HOCRReader reader = new HOCRReader(file, HOCRBoxGranularity.WORD);
+            try {
+                layer = HOCRLayer.read(reader, 1);
+            } finally {
+                reader.close();
+            }
+
+            image = Image.getInstance(jpeg(words));
+            runs = creator.layoutTextBoxes(image, layer, 0);
+
+            doc = new Document();
+            writer = PdfWriter.getInstance(doc, new NullOutputStream());
+            doc.open();
+            cb = writer.getDirectContentUnder();
+        }
+
+        @Override
+        public long run() throws Exception {
+            if (! write) {
+                return creator.layoutTextBoxes(image, layer, 0).size();
+            }
+
+            creator.writeTextBoxes(cb, runs);
+            long n = cb.getInternalBuffer().size();
+            cb.reset(false);
+
+            return n;
+        }
+
+        @Override
+        public void tearDown() {
+            writer.setPageEmpty(false);
+            doc.close();
+        }
+    }
+
+    /*
+        the glyph metrics of the words of a page of 2000 words, taken from a
+        FontMetricsCache that lives as long as the benchmark, like the one of
+        a PDFCreator, or computed by the font every time. The words are drawn
+        from 500 made-up words, the frequent ones much more often, like the
+        words of a text.
+    */
+    static class MetricsBenchmark extends Benchmark {
+        private final boolean cached;
+        private final String[] words = new String[2000];
+        private BaseFont font;
+        private FontMetricsCache cache;
+
+        MetricsBenchmark(boolean cached) {
+            super(cached ? "metrics.cached" : "metrics.uncached", "word", 2000);
+            this.cached = cached;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            Random random = new Random(2000);
+            String[] vocabulary = new String[500];
+
+            for (int v = 0 ; v < vocabulary.length ; v++) {
+                char[] word = new char[2 + random.nextInt(10)];
+                for (int c = 0 ; c < word.length ; c++) {
+                    word[c] = (char) ('a' + random.nextInt(26));
+                }
+                vocabulary[v] = new String(word);
+            }
+
+            for (int w = 0 ; w < words.length ; w++) {
+                words[w] = vocabulary[random.nextInt(1 + random.nextInt(vocabulary.length))];
+            }
+
+            font = PDFResources.getFont(PDFCreator.fontFile);
+            cache = new FontMetricsCache(font, PDFCreator.fontMetricsCacheSize);
+        }
+
+        @Override
+        public long run() {
+            long n = 0;
+
+            for (String word : words) {
+                if (cached) {
+                    int[] metrics = cache.get(word);
+                    n += metrics[FontMetricsCache.WIDTH] + metrics[FontMetricsCache.ASCENT] + metrics[FontMetricsCache.DESCENT];
+                } else {
+                    n += font.getWidth(word) + font.getAscent(word) + font.getDescent(word);
+                }
+            }
+
+            return n;
+        }
+    }
+
+    /*
+        createPdf of pages with a HOCR file next to each JPEG, with a text
+        layer mode
+    */
+    static class CreatePdfBenchmark extends Benchmark {
+        private final int pages;
+        private final TextLayerMode mode;
+        private final PDFCreator creator = new PDFCreator();
+        private String[] images;
+        private File output;
+        private long bytes;
+
+        CreatePdfBenchmark(int pages, TextLayerMode mode) {
+            super("createpdf." + pages + (mode == TextLayerMode.TEXT ? "" : "." + mode.name().toLowerCase()), "page", pages);
+            this.pages = pages;
+            this.mode = mode;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            File pageDir = new File(getDirectory(), "pages");
+            pageDir.mkdirs();
+            images = new String[pages];
+
+            for (int i = 0 ; i < pages ; i++) {
+                File image = new File(pageDir, String.format("%04d.jpg", i + 1));
+                FileOutputStream out = new FileOutputStream(image);
+                try {
+                    out.write(jpeg(i));
+                } finally {
+                    out.close();
+                }
+                writeHocr(new File(pageDir, String.format("%04d.html", i + 1)), 300, i);
+                images[i] = image.getPath();
+            }
+
+            output = new File(getDirectory(), "out.pdf");
+        }
+
+        @Override
+        public long run() throws Exception {
+            TextLayerMode textLayer = PDFCreator.textLayer;
+            PDFCreator.textLayer = mode;
+
+            try {
+                creator.createPdf(output.getPath(), images);
+            } finally {
+                PDFCreator.textLayer = textLayer;
+            }
+
+            bytes = output.length();
+            return bytes;
+        }
+
+        @Override
+        public String getReport() {
+            return bytes + " bytes";
+        }
+    }
+
+    /*
+        PDFFonts.processResource of the pages of the test PDFs
+    */
+    static class FontsBenchmark extends Benchmark {
+        private final List<PdfDictionary> resources = new ArrayList<PdfDictionary>();
+
+        FontsBenchmark() {
+            super("fonts");
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            for (File pdf : testPdfs()) {
+                PdfReader reader = new PdfReader(pdf.getPath());
+
+                for (int k = 1 ; k <= reader.getNumberOfPages() ; k++) {
+                    resources.add(reader.getPageN(k).getAsDict(PdfName.RESOURCES));
+                }
+            }
+        }
+
+        @Override
+        public long run() throws Exception {
+            Set<String> set = new TreeSet<String>();
+
+            for (PdfDictionary resource : resources) {
+                PDFFonts.processResource(set, resource);
+            }
+
+            return set.size();
+        }
+    }
+
+    /*
+        PDFTextExtract.extract of the test PDFs
+    */
+    static class ExtractBenchmark extends Benchmark {
+        private final PDFTextExtract extract = new PDFTextExtract();
+        private List<File> pdfs;
+
+        ExtractBenchmark() {
+            super("extract");
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            pdfs = testPdfs();
+        }
+
+        @Override
+        public long run() throws Exception {
+            long n = 0;
+
+            for (File pdf : pdfs) {
+                for (String text : extract.extract(pdf.getPath())) {
+                    n += text.length();
+                }
+            }
+
+            return n;
+        }
+    }
+}
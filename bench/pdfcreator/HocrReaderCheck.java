@@ -0,0 +1,234 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the DOM reader and the streaming parser of HOCRReader return
+ * the same boxes, at word and at line granularity: the page, the bboxes,
+ * the text, the confidence, the baseline and the line of every box.
+ *
+ * The input is the HOCR files of the test directory (*.html, *.hocr), the
+ * files given as arguments, and generated pages with entities, nested
+ * markup, ocrx_word inside ocr_line and all the ways to quote an attribute.
+ * Run it with `ant hocr-check`; it exits with 1 when a file differs.
+ */
+public class HocrReaderCheck {
+    private static final String PAGE = "<div class='ocr_page' title='bbox 0 0 1000 1400'>";
+
+    private static final String[][] SAMPLES = {
+        { "lines",
+            PAGE
+            + "<div class='ocr_carea' title='bbox 10 10 900 200'><p class='ocr_par' title='bbox 10 10 900 200'>"
+            + "<span class='ocr_line' title='bbox 10 10 900 40; baseline 0.01 -5; x_size 30'>"
+            + "<span class='ocrx_word' title='bbox 10 10 100 40; x_wconf 91'>Ghent</span> "
+            + "<span class='ocrx_word' title='bbox 110 10 200 40; x_wconf 88'>University</span></span>"
+            + "<span class='ocr_line' title='bbox 10 50 900 80'>"
+            + "<span class='ocrx_word' title='bbox 10 50 100 80'>Library</span></span>"
+            + "</p></div></div>"
+            + PAGE
+            + "<span class='ocr_line' title='bbox 10 10 900 40'><span class='ocrx_word' title='bbox 10 10 50 40'>page</span>"
+            + " <span class='ocrx_word' title='bbox 60 10 90 40'>2</span></span></div>" },
+        { "entities",
+            PAGE
+            + "<span class='ocr_line' title='bbox 10 10 900 40'>"
+            + "<span class='ocrx_word' title='bbox 10 10 50 40'>&amp;</span>"
+            + "<span class='ocrx_word' title='bbox 60 10 90 40'>&lt;a&gt;</span>"
+            + "<span class='ocrx_word' title='bbox 100 10 150 40'>&quot;quod&quot;</span>"
+            + "<span class='ocrx_word' title='bbox 160 10 200 40'>caf&#233;</span>"
+            + "<span class='ocrx_word' title='bbox 210 10 250 40'>caf&#xE9;</span>"
+            + "<span class='ocrx_word' title='bbox 260 10 300 40'>Z&uuml;rich</span>"
+            + "<span class='ocrx_word' title='bbox 310 10 350 40'>&#x152;uvres</span>"
+            + "<span class='ocrx_word' title='bbox 360 10 400 40'>l&apos;an</span>"
+            + "<span class='ocrx_word' title='bbox 410 10 450 40'>A&nbsp;B</span>"
+            + "<span class='ocrx_word' title='bbox 460 10 500 40'>&copy;1817</span>"
+            + "</span></div>" },
+        { "nested",
+            PAGE
+            + "<span class='ocr_line' title='bbox 10 10 900 40'>"
+            + "<span class='ocrx_word' title='bbox 10 10 100 40'><strong><em>bold</em></strong></span> "
+            + "<span class='ocrx_word' title='bbox 110 10 200 40'>"
+            + "<span class='ocrx_cinfo' title='x_bboxes 110 10 150 40'>ab</span><span class='ocrx_cinfo'>cd</span></span> "
+            + "<span class='ocrx_word' title='bbox 210 10 300 40'>  spaced \n  out  </span>"
+            + "<span class='ocr_word' title='bbox 310 10 400 40'>old</span>"
+            + "<span class='ocr_word ocrx_word' title='bbox 410 10 500 40'>both</span>"
+            + "</span>"
+            + "<p class='ocr_par'><span class='ocrx_word' title='bbox 10 60 100 90'>lineless</span></p>"
+            + "<span class='ocr_line' title='bbox 10 100 900 130'></span>"
+            + "<span class='ocr_line' title='x_size 20'><span class='ocrx_word' title='bbox 10 140 100 170'>nobbox</span></span>"
+            + "<!-- <span class='ocrx_word' title='bbox 1 1 2 2'>comment</span> -->"
+            + "</div>" },
+        { "quoting",
+            "<div class=\"ocr_page\" title=\"image &quot;a;b.tif&quot;; bbox 0 0 1000 1400\">"
+            + "<span class=ocr_line title='bbox 10 10 900 40'>"
+            + "<span class=\"ocrx_word\" title=\"bbox 10 10 100 40; x_wconf 90\">double</span>"
+            + "<span class='ocrx_word' title='bbox 110 10 200 40'>single</span>"
+            + "<span class=ocrx_word title='bbox 210 10 300 40'>unquoted</span>"
+            + "<span title='bbox 310 10 400 40' class='ocrx_word'>before</span>"
+            + "<span class = 'ocrx_word'  title = 'bbox 410 10 500 40' >spaces</span>"
+            + "<span class='word ocrx_word other' title='bbox 510 10 600 40'>classes</span>"
+            + "<span class='ocrx_word' title='image \"x.tif\"; bbox 610 10 700 40'>inner</span>"
+            + "<span id=w1 class='ocrx_word' lang=\"lat\" title='bbox 710 10 800 40'>attrs</span>"
+            + "</span></div>" },
+    };
+
+    private int failures = 0;
+
+    /**
+     * Compares the readers on a file
+     *
+     * @param file the HOCR file
+     * @return true when both readers return the same boxes
+     * @throws IOException when the file can't be read
+     */
+    public boolean check(File file) throws IOException {
+        boolean same = true;
+
+        for (HOCRBoxGranularity granularity : HOCRBoxGranularity.values()) {
+            List<String> dom = read(file, granularity, false);
+            List<String> stream = read(file, granularity, true);
+            int n = Math.max(dom.size(), stream.size());
+
+            for (int i = 0 ; i < n ; i++) {
+                String d = i < dom.size() ? dom.get(i) : "(none)";
+                String s = i < stream.size() ? stream.get(i) : "(none)";
+
+                if (! d.equals(s)) {
+                    System.out.println("FAIL " + file + " " + granularity + " box " + i + ":\n  dom:    " + d + "\n  stream: " + s);
+                    same = false;
+                    break;
+                }
+            }
+
+            if (same) {
+                System.out.println("ok   " + file.getName() + " " + granularity + ": " + dom.size() + " boxes");
+            }
+        }
+
+        if (! same) {
+            failures++;
+        }
+
+        return same;
+    }
+
+    private static List<String> read(File file, HOCRBoxGranularity granularity, boolean streaming) throws IOException {
+        List<String> boxes = new ArrayList<String>();
+        HOCRReader reader = new HOCRReader(file, granularity);
+        reader.setStreaming(streaming);
+
+        try {
+            for (HOCRBox box : reader) {
+                boxes.add(describe(box));
+            }
+        } catch (RuntimeException ex) {
+            boxes.add("error " + ex);
+        } finally {
+            reader.close();
+        }
+
+        return boxes;
+    }
+
+    private static String describe(HOCRBox box) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("page ").append(box.getPage()).append(' ').append(Arrays.toString(box.getPageCoordinates()));
+        sb.append(" bbox ").append(Arrays.toString(box.getCoordinates()));
+        sb.append(" text \"").append(box.getText()).append('"');
+        sb.append(" wconf ").append(box.getWconf());
+
+        if (box.hasBaseline()) {
+            sb.append(" baseline ").append(box.getBaselineSlope()).append(' ').append(box.getBaselineOffset());
+        }
+
+        sb.append(" x_size ").append(box.getXSize());
+
+        if (box.getLineBox() != null) {
+            sb.append(" line ").append(box.getLine()).append(' ').append(Arrays.toString(box.getLineBox().getCoordinates()));
+        }
+
+        return sb.toString();
+    }
+
+    private static void write(File file, String body) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<html xmlns='http://www.w3.org/1999/xhtml'><head><title>check</title></head><body>\n");
+            out.write(body);
+            out.write("\n</body></html>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HocrReaderCheck check = new HocrReaderCheck();
+        List<File> files = new ArrayList<File>();
+
+        File[] tests = new File("test").listFiles();
+
+        if (tests != null) {
+            Arrays.sort(tests);
+
+            for (File file : tests) {
+                if (file.getName().endsWith(".html") || file.getName().endsWith(".hocr")) {
+                    files.add(file);
+                }
+            }
+        }
+
+        for (String arg : args) {
+            files.add(new File(arg));
+        }
+
+        File dir = Benchmarks.getDirectory();
+
+        for (String[] sample : SAMPLES) {
+            File file = new File(dir, sample[0] + ".html");
+            write(file, sample[1]);
+            files.add(file);
+        }
+
+        for (int words : new int[] { 50, 2000 }) {
+            File file = new File(dir, "generated-" + words + ".html");
+            Benchmarks.writeHocr(file, words, words);
+            files.add(file);
+        }
+
+        for (File file : files) {
+            check.check(file);
+        }
+
+        if (check.failures > 0) {
+            System.err.println("error: " + check.failures + " file(s) differ between the DOM reader and the streaming parser");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Reads the embedded ICC profile of an image out of its header, without
+ * decoding the image.
+ *
+ * Supported are the APP2 ICC_PROFILE segments of JPEG, the InterColorProfile
+ * tag (34675) of the first TIFF directory and the colr box of JPEG 2000.
+ */
+public class ColorProfileProbe {
+    private static final int TIFF_ICC_PROFILE = 34675;
+    private static final int JP2_JP2H = 0x6a703268;
+    private static final int JP2_COLR = 0x636f6c72;
+    private static final int JP2_JP2C = 0x6a703263;
+    private static final byte[] JPEG_ICC = "ICC_PROFILE\0".getBytes();
+
+    private ColorProfileProbe() {
+    }
+
+    /**
+     * Returns the ICC profile of an image
+     *
+     * @param file a JPEG, TIFF or JPEG 2000 image
+     * @return the profile data, or null when the image has no profile or
+     *         is of another type
+     * @throws IOException when the image can't be read
+     */
+    public static byte[] probe(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            if (in.length() < 12) {
+                return null;
+            }
+
+            int magic = in.readInt();
+            in.seek(0);
+
+            if ((magic >>> 16) == 0xFFD8) {
+                return check(probeJpeg(in));
+            }
+            if (magic == 0x49492A00 || magic == 0x4D4D002A) {
+                return check(probeTiff(in, magic == 0x49492A00));
+            }
+            if (magic == 0x0000000C) {
+                return check(probeJpeg2000(in));
+            }
+
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+        a profile starts with a 128 byte header, with the "acsp" signature
+        at offset 36
+    */
+    private static byte[] check(byte[] data) {
+        if (data == null || data.length < 128) {
+            return null;
+        }
+        if (data[36] != 'a' || data[37] != 'c' || data[38] != 's' || data[39] != 'p') {
+            return null;
+        }
+        return data;
+    }
+
+    /*
+        a profile can be split over several APP2 segments, each with its
+        sequence number (1..count)
+    */
+    private static byte[] probeJpeg(RandomAccessFile in) throws IOException {
+        byte[][] chunks = null;
+
+        in.seek(2);
+
+        while (in.getFilePointer() + 4 <= in.length()) {
+            int marker = in.readUnsignedShort();
+
+            if ((marker & 0xFF00) != 0xFF00) {
+                return null;
+            }
+            //fill bytes
+            if (marker == 0xFFFF) {
+                in.seek(in.getFilePointer() - 1);
+                continue;
+            }
+            //start of scan or end of image: the header is over
+            if (marker == 0xFFDA || marker == 0xFFD9) {
+                break;
+            }
+            //markers without a segment
+            if (marker == 0xFF01 || (marker >= 0xFFD0 && marker <= 0xFFD7)) {
+                continue;
+            }
+
+            int length = in.readUnsignedShort() - 2;
+            long next = in.getFilePointer() + length;
+
+            if (marker == 0xFFE2 && length > JPEG_ICC.length + 2) {
+                byte[] id = new byte[JPEG_ICC.length];
+                in.readFully(id);
+
+                if (Arrays.equals(id, JPEG_ICC)) {
+                    int sequence = in.readUnsignedByte();
+                    int count = in.readUnsignedByte();
+
+                    if (chunks == null) {
+                        chunks = new byte[count][];
+                    }
+                    if (count != chunks.length || sequence < 1 || sequence > count) {
+                        return null;
+                    }
+
+                    chunks[sequence - 1] = new byte[length - JPEG_ICC.length - 2];
+                    in.readFully(chunks[sequence - 1]);
+                }
+            }
+
+            in.seek(next);
+        }
+
+        if (chunks == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (byte[] chunk : chunks) {
+            if (chunk == null) {
+                return null;
+            }
+            out.write(chunk);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] probeTiff(RandomAccessFile in, boolean littleEndian) throws IOException {
+        in.seek(4);
+        long ifd = readInt(in, littleEndian) & 0xFFFFFFFFL;
+
+        if (ifd + 2 > in.length()) {
+            return null;
+        }
+
+        in.seek(ifd);
+        int entries = readShort(in, littleEndian);
+
+        for (int i = 0 ; i < entries ; i++) {
+            in.seek(ifd + 2 + 12L * i);
+
+            int tag = readShort(in, littleEndian);
+            int type = readShort(in, littleEndian);
+            long count = readInt(in, littleEndian) & 0xFFFFFFFFL;
+
+            if (tag != TIFF_ICC_PROFILE) {
+                continue;
+            }
+            //UNDEFINED or BYTE
+            if ((type != 7 && type != 1) || count > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            byte[] data = new byte[(int) count];
+
+            if (count > 4) {
+                long offset = readInt(in, littleEndian) & 0xFFFFFFFFL;
+                if (offset + count > in.length()) {
+                    return null;
+                }
+                in.seek(offset);
+            }
+
+            in.readFully(data);
+
+            return data;
+        }
+
+        return null;
+    }
+
+    /*
+        the colr boxes are in the jp2h header box. Methods 2 and 3 carry
+        an ICC profile, method 1 an enumerated color space
+    */
+    private static byte[] probeJpeg2000(RandomAccessFile in) throws IOException {
+        long position = 0;
+        long end = in.length();
+
+        while (position + 8 <= end) {
+            in.seek(position);
+
+            long length = in.readInt() & 0xFFFFFFFFL;
+            int type = in.readInt();
+            long header = 8;
+
+            if (length == 1) {
+                length = in.readLong();
+                header = 16;
+            } else if (length == 0) {
+                length = end - position;
+            }
+
+            if (length < header) {
+                return null;
+            }
+
+            if (type == JP2_JP2H) {
+                //look inside the header box
+                end = position + length;
+                position += header;
+                continue;
+            }
+
+            if (type == JP2_COLR && length > header + 3) {
+                int method = in.readUnsignedByte();
+                in.skipBytes(2);
+
+                //there can be more than one colr box
+                if (method == 2 || method == 3) {
+                    byte[] data = new byte[(int) (length - header - 3)];
+                    in.readFully(data);
+
+                    return data;
+                }
+            }
+
+            //the codestream comes after the header
+            if (type == JP2_JP2C) {
+                return null;
+            }
+
+            position += length;
+        }
+
+        return null;
+    }
+
+    private static int readShort(RandomAccessFile in, boolean littleEndian) throws IOException {
+        int value = in.readUnsignedShort();
+        return littleEndian ? ((value & 0xFF) << 8) | (value >>> 8) : value;
+    }
+
+    private static int readInt(RandomAccessFile in, boolean littleEndian) throws IOException {
+        int value = in.readInt();
+        return littleEndian ? Integer.reverseBytes(value) : value;
+    }
+}
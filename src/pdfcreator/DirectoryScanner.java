@@ -0,0 +1,106 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the images of a directory: the regular files that aren't hidden,
+ * whose name matches the include regex and doesn't match the exclude regex,
+ * sorted by path.
+ *
+ * The regexes are compiled once for all directories. The name is checked
+ * before the file is, so only the files that pass get one attribute read.
+ */
+public class DirectoryScanner {
+    private final Pattern include;
+    private final Pattern exclude;
+
+    /**
+     * Create a new DirectoryScanner instance
+     *
+     * @param include regex of the files to include (or null)
+     * @param exclude regex of the files to exclude (or null)
+     * @throws java.util.regex.PatternSyntaxException when a regex is invalid
+     */
+    public DirectoryScanner(String include, String exclude) {
+        this.include = include == null ? null : Pattern.compile(include);
+        this.exclude = exclude == null ? null : Pattern.compile(exclude);
+    }
+
+    /**
+     * Lists the images of a directory
+     *
+     * @param directory the directory
+     * @return the absolute paths of the images, sorted
+     * @throws IOException when the directory can't be read
+     */
+    public String[] scan(String directory) throws IOException {
+        Path dir = Paths.get(directory).toAbsolutePath();
+        List<String> images = new ArrayList<String>();
+
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+
+        try {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+
+                if (include != null && ! include.matcher(name).matches()) {
+                    continue;
+                }
+
+                if (exclude != null && exclude.matcher(name).matches()) {
+                    continue;
+                }
+
+                if (Files.isHidden(path)) {
+                    continue;
+                }
+
+                BasicFileAttributes attributes;
+
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException ex) {
+                    //e.g. a broken link, or removed since it was listed
+                    continue;
+                }
+
+                if (attributes.isRegularFile()) {
+                    images.add(path.toString());
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        Collections.sort(images);
+
+        return images.toArray(new String[images.size()]);
+    }
+}
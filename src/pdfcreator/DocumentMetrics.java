@@ -0,0 +1,260 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The time spent in every stage of one document, the bytes that were read
+ * and written and the peak heap, written as one JSON line per document to
+ * the file of -M:
+ *
+ *   {"output":"a.pdf","ok":true,"pages":2,"seconds":1.234,
+ *    "image_bytes":123,"hocr_bytes":45,"peak_heap":67,
+ *    "outputs":[{"file":"a.pdf","bytes":89}],
+ *    "stages":{"image":{"count":2,"seconds":0.1,"max":0.06,"ms":{"64":2}},...}}
+ *
+ * "ms" is the histogram of the calls of a stage (mostly one per page): the
+ * number of calls that took less than 1, 2, 4, 8, ... milliseconds, the
+ * empty buckets are left out. The stages run on the page workers too, so
+ * their seconds can add up to more than the seconds of the document.
+ *
+ * The peak heap is sampled after every page; with several documents in
+ * parallel (-j) it is the heap of the process while the document was made.
+ * Without -M there is no DocumentMetrics and nothing is timed.
+ */
+public class DocumentMetrics {
+    public static final int IMAGE = 0;
+    public static final int ENCODE = 1;
+    public static final int HOCR = 2;
+    public static final int LAYOUT = 3;
+    public static final int RESTORE = 4;
+    public static final int WAIT = 5;
+    public static final int WRITE = 6;
+    public static final int FINISH = 7;
+    public static final int CLOSE = 8;
+
+    private static final String[] STAGES = {
+        "image", "encode", "hocr", "layout", "restore", "wait", "write", "finish", "close"
+    };
+    private static final int BUCKETS = 24;
+
+    private static PrintWriter log;
+
+    private final long started = System.nanoTime();
+    private final long[] counts = new long[STAGES.length];
+    private final long[] nanos = new long[STAGES.length];
+    private final long[] max = new long[STAGES.length];
+    private final long[][] histogram = new long[STAGES.length][BUCKETS];
+    private long imageBytes = 0;
+    private long hocrBytes = 0;
+    private long peakHeap = 0;
+
+    /**
+     * Adds a call of a stage
+     *
+     * @param stage IMAGE, ENCODE, HOCR, LAYOUT, RESTORE, WAIT, WRITE, FINISH
+     *        or CLOSE
+     * @param start the System.nanoTime() at the start of the call
+     */
+    public void add(int stage, long start) {
+        addNanos(stage, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds a call of a stage that was timed elsewhere
+     *
+     * @param stage the stage
+     * @param elapsed the nanoseconds of the call
+     */
+    public synchronized void addNanos(int stage, long elapsed) {
+        long ms = elapsed / 1000000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+
+        counts[stage]++;
+        nanos[stage] += elapsed;
+        max[stage] = Math.max(max[stage], elapsed);
+        histogram[stage][bucket]++;
+    }
+
+    public synchronized void addImageBytes(long bytes) {
+        imageBytes += bytes;
+    }
+
+    public synchronized void addHocrBytes(long bytes) {
+        hocrBytes += bytes;
+    }
+
+    /**
+     * Samples the heap that is in use
+     */
+    public void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+
+        synchronized (this) {
+            peakHeap = Math.max(peakHeap, used);
+        }
+    }
+
+    /**
+     * Returns the JSON line of the document
+     *
+     * @param outputs the outputs of the document
+     * @param pages the number of pages
+     * @param error why the document failed, or null
+     * @return the JSON line
+     */
+    public synchronized String toJson(List<PDFOutput> outputs, int pages, Throwable error) {
+        StringBuilder json = new StringBuilder();
+
+        json.append("{\"output\":").append(quote(outputs.get(0).getFilename()));
+        json.append(",\"ok\":").append(error == null);
+
+        if (error != null) {
+            json.append(",\"error\":").append(quote(String.valueOf(error)));
+        }
+
+        json.append(",\"pages\":").append(pages);
+        json.append(",\"seconds\":").append(seconds(System.nanoTime() - started));
+        json.append(",\"image_bytes\":").append(imageBytes);
+        json.append(",\"hocr_bytes\":").append(hocrBytes);
+        json.append(",\"peak_heap\":").append(peakHeap);
+
+        json.append(",\"outputs\":[");
+        for (int o = 0 ; o < outputs.size() ; o++) {
+            if (o > 0) {
+                json.append(',');
+            }
+            json.append("{\"file\":").append(quote(outputs.get(o).getFilename()));
+            json.append(",\"bytes\":").append(outputs.get(o).getBytes()).append('}');
+        }
+        json.append(']');
+
+        json.append(",\"stages\":{");
+        boolean first = true;
+        for (int s = 0 ; s < STAGES.length ; s++) {
+            if (counts[s] == 0) {
+                continue;
+            }
+            if (! first) {
+                json.append(',');
+            }
+            first = false;
+
+            json.append('"').append(STAGES[s]).append("\":{\"count\":").append(counts[s]);
+            json.append(",\"seconds\":").append(seconds(nanos[s]));
+            json.append(",\"max\":").append(seconds(max[s]));
+            json.append(",\"ms\":{");
+
+            boolean firstBucket = true;
+            for (int b = 0 ; b < BUCKETS ; b++) {
+                if (histogram[s][b] == 0) {
+                    continue;
+                }
+                if (! firstBucket) {
+                    json.append(',');
+                }
+                firstBucket = false;
+                json.append('"').append(1L << b).append("\":").append(histogram[s][b]);
+            }
+            json.append("}}");
+        }
+        json.append("}}");
+
+        return json.toString();
+    }
+
+    /**
+     * Returns the JSON line of a job that failed before its document was
+     * started, e.g. a batch line that can't be parsed
+     *
+     * @param output the output of the job
+     * @param error why the job failed
+     * @return the JSON line
+     */
+    public static String toJson(String output, Throwable error) {
+        return "{\"output\":" + quote(output) + ",\"ok\":false,\"error\":" + quote(String.valueOf(error)) + "}";
+    }
+
+    /**
+     * Appends a line to the metrics file
+     *
+     * @param file the file, "-" for the standard error
+     * @param line the JSON line
+     */
+    public static synchronized void write(String file, String line) {
+        if (log == null) {
+            try {
+                log = file.equals("-")
+                        ? new PrintWriter(System.err)
+                        : new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            } catch (IOException ex) {
+                System.err.println("warning: can't write the metrics to " + file + ": " + ex);
+                return;
+            }
+        }
+
+        log.println(line);
+        log.flush();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (int i = 0 ; i < s.length() ; i++) {
+            char c = s.charAt(i);
+
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.pdf.BaseFont;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded (LRU) cache of the glyph metrics of words in one font.
+ *
+ * OCR text repeats words a lot. For every word the width, ascent and
+ * descent in glyph space (1/1000 of the font size) are computed once, so
+ * the font size and baseline of a box become a lookup and a multiply.
+ * The cache is safe to use from several threads; the metrics of a miss
+ * are computed outside its lock.
+ */
+public class FontMetricsCache {
+    public static final int WIDTH = 0;
+    public static final int ASCENT = 1;
+    public static final int DESCENT = 2;
+
+    private final BaseFont font;
+    private final Map<String, int[]> cache;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a new FontMetricsCache instance
+     *
+     * @param font the font
+     * @param capacity the maximum number of words in the cache
+     */
+    public FontMetricsCache(BaseFont font, final int capacity) {
+        this.font = font;
+        this.cache = new LinkedHashMap<String, int[]>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public BaseFont getFont() {
+        return font;
+    }
+
+    /**
+     * Returns the metrics of a word in glyph space: use the WIDTH, ASCENT
+     * and DESCENT indexes. The returned array must not be changed.
+     *
+     * @param text the word
+     * @return int[]
+     */
+    public int[] get(String text) {
+        int[] metrics;
+
+        synchronized (this) {
+            metrics = cache.get(text);
+
+            if (metrics != null) {
+                hits++;
+                return metrics;
+            }
+
+            misses++;
+        }
+
+        //outside the lock, so the page workers don't wait for each other's misses
+        metrics = new int[] {
+            font.getWidth(text),
+            font.getAscent(text),
+            font.getDescent(text)
+        };
+
+        synchronized (this) {
+            cache.put(text, metrics);
+        }
+
+        return metrics;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+
+        return String.format("font metrics cache: %d lookups, %.1f%% hits, %d words, %d evictions",
+                lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups, cache.size(), evictions);
+    }
+}
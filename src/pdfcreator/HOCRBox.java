@@ -8,10 +8,27 @@ package pdfcreator;
 public class HOCRBox {
 
     private String text;
-    private int [] coordinates;
+    private int x1, y1, x2, y2;
     private int page;
     private int [] pageCoordinates;
     private HOCRBoxGranularity boxGranularity = HOCRBoxGranularity.WORD;
+    private int wconf = -1;
+    private boolean baseline = false;
+    private float baselineSlope;
+    private float baselineOffset;
+    private float xSize;
+    //the enclosing ocr_line of a word box
+    private int line = -1;
+    private HOCRBox lineBox;
+    //set when this box is a view over a row of a HOCRLayer
+    private HOCRLayer layer;
+    private int row;
+
+    /**
+     * Create an empty HOCRBox, to be loaded with HOCRLayer.get(row,box)
+     */
+    public HOCRBox(){
+    }
 
     /**
      * Create a new HOCRBox instance
@@ -26,7 +43,35 @@ public class HOCRBox {
         this.page = page;
         this.pageCoordinates = pageCoordinates;
         this.text = text;
-        this.coordinates = coordinates;
+        this.x1 = coordinates[0];
+        this.y1 = coordinates[1];
+        this.x2 = coordinates[2];
+        this.y2 = coordinates[3];
+
+    }
+
+    /**
+     * Create a new HOCRBox instance out of a parsed title
+     *
+     * @param page  a page number
+     * @param pageCoordinates the x1,y1,x2,y2 coordinates of the page
+     * @param text the OCR text
+     * @param title the parsed title of the OCR element
+     */
+    public HOCRBox(int page,int [] pageCoordinates,String text, HOCRTitle title){
+
+        this.page = page;
+        this.pageCoordinates = pageCoordinates;
+        this.text = text;
+        this.x1 = title.getX1();
+        this.y1 = title.getY1();
+        this.x2 = title.getX2();
+        this.y2 = title.getY2();
+        this.wconf = title.getWconf();
+        this.baseline = title.hasBaseline();
+        this.baselineSlope = title.getBaselineSlope();
+        this.baselineOffset = title.getBaselineOffset();
+        this.xSize = title.hasXSize() ? title.getXSize() : 0;
 
     }
     /**
@@ -37,9 +82,40 @@ public class HOCRBox {
      * @return String
      */
     public String getText() {
+        if (text == null && layer != null) {
+            text = layer.getText(row);
+        }
         return text;
     }
 
+    /*
+        makes this box a view over a row of a layer. The text is only
+        created when asked for.
+    */
+    void load(HOCRLayer layer, int row, int page, int [] pageCoordinates, int x1, int y1, int x2, int y2, int wconf, int line){
+        this.layer = layer;
+        this.row = row;
+        this.text = null;
+        this.page = page;
+        this.pageCoordinates = pageCoordinates;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.wconf = wconf;
+        this.baseline = false;
+        this.baselineSlope = 0;
+        this.baselineOffset = 0;
+        this.xSize = 0;
+        this.line = line;
+        this.lineBox = null;
+    }
+
+    void setLine(int line, HOCRBox lineBox){
+        this.line = line;
+        this.lineBox = lineBox;
+    }
+
     /**
      * getCoordinates
      *
@@ -49,7 +125,23 @@ public class HOCRBox {
      * @return int[]
      */
     public int[] getCoordinates() {
-        return coordinates;
+        return new int [] { x1, y1, x2, y2 };
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
     }
 
     /**
@@ -63,14 +155,33 @@ public class HOCRBox {
     public int[] getBottomCoordinates(){
 
         int pageHeight = pageCoordinates[3];
-        int llx = coordinates[0];
-        int lly = pageHeight - coordinates[3];
-        int urx = coordinates[2];
-        int ury = pageHeight - coordinates[1];
+        int llx = x1;
+        int lly = pageHeight - y2;
+        int urx = x2;
+        int ury = pageHeight - y1;
         return new int [] { llx,lly, urx, ury };
 
     }
 
+    /**
+     * getBottomCoordinates
+     *
+     * same as getBottomCoordinates(), but fills the given array
+     *
+     * @param coordinates an array of (at least) 4 integers
+     * @return int[] the given array
+     */
+    public int[] getBottomCoordinates(int [] coordinates){
+
+        int pageHeight = pageCoordinates[3];
+        coordinates[0] = x1;
+        coordinates[1] = pageHeight - y2;
+        coordinates[2] = x2;
+        coordinates[3] = pageHeight - y1;
+        return coordinates;
+
+    }
+
     /**
      * getPage
      *
@@ -134,7 +245,7 @@ public class HOCRBox {
      * @return String
      */
     public String getBbox(){
-        return coordinates[0]+","+coordinates[1]+","+coordinates[2]+","+coordinates[3];
+        return x1+","+y1+","+x2+","+y2;
     }
 
     /**
@@ -150,4 +261,76 @@ public class HOCRBox {
     public void setBoxGranularity(HOCRBoxGranularity boxGranularity) {
         this.boxGranularity = boxGranularity;
     }
-}
\ No newline at end of file
+
+    /**
+     * getWconf
+     *
+     * get the "x_wconf" word confidence (0-100), or -1 when unknown
+     *
+     * @return int
+     */
+    public int getWconf() {
+        return wconf;
+    }
+
+    /**
+     * hasBaseline
+     *
+     * true when the box has a "baseline" property
+     *
+     * @return boolean
+     */
+    public boolean hasBaseline() {
+        return baseline;
+    }
+
+    public float getBaselineSlope() {
+        return baselineSlope;
+    }
+
+    /**
+     * getBaselineOffset
+     *
+     * get the vertical offset of the baseline, relative to the bottom of the box
+     *
+     * @return float
+     */
+    public float getBaselineOffset() {
+        return baselineOffset;
+    }
+
+    /**
+     * getXSize
+     *
+     * get the "x_size" (height of the line), or 0 when unknown
+     *
+     * @return float
+     */
+    public float getXSize() {
+        return xSize;
+    }
+
+    /**
+     * getLine
+     *
+     * get the number of the ocr_line that contains this word box, or -1
+     * when the word is not inside a line. Words of the same line have the
+     * same number. For a box of a HOCRLayer, this is the line of the layer.
+     *
+     * @return int
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * getLineBox
+     *
+     * get the ocr_line that contains this word box (without text), or null
+     *
+     * @return HOCRBox
+     */
+    public HOCRBox getLineBox() {
+        return lineBox;
+    }
+}
@@ -0,0 +1,375 @@
+package pdfcreator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar storage of the OCR boxes of a HOCR document
+ *
+ * Every box is a row in a set of parallel int arrays (x1, y1, x2, y2, page,
+ * wconf). The text of all boxes is kept in one char buffer, with an offset
+ * per row. Rows are stored in page order, so the boxes of a page are a
+ * contiguous range of rows.
+ *
+ * Word boxes that are inside an ocr_line refer to a row of a second set of
+ * columns, the line table: its bbox and baseline.
+ *
+ * Use get(row,box) to load a row into a reusable HOCRBox: walking the layer
+ * this way doesn't create an object per box.
+ */
+public class HOCRLayer {
+
+    private int size = 0;
+    private int[] x1 = new int[256];
+    private int[] y1 = new int[256];
+    private int[] x2 = new int[256];
+    private int[] y2 = new int[256];
+    private int[] pages = new int[256];
+    private int[] wconf = new int[256];
+    private int[] lines = new int[256];
+    private int[] textOffsets = new int[257];
+    private char[] chars = new char[2048];
+
+    //per page: first row, and the page bbox (shared by the boxes of the page)
+    private int pageCount = 0;
+    private int[] pageStarts = new int[16];
+    private int[][] pageCoordinates = new int[16][];
+    //the ocr_page elements that were read, also the ones without boxes
+    private int hocrPageCount = 0;
+
+    //per line: bbox and baseline
+    private int lineCount = 0;
+    private int[] lineX1 = new int[64];
+    private int[] lineY1 = new int[64];
+    private int[] lineX2 = new int[64];
+    private int[] lineY2 = new int[64];
+    private float[] lineBaselineSlope = new float[64];
+    private float[] lineBaselineOffset = new float[64];
+    private boolean[] lineBaseline = new boolean[64];
+    //line number of the reader, of the last box that was added
+    private int lastLine = -1;
+
+    private HOCRBoxGranularity boxGranularity = HOCRBoxGranularity.WORD;
+
+    /**
+     * read
+     *
+     * reads all the boxes of a HOCRReader into a new layer
+     *
+     * @param reader the HOCR reader
+     * @return HOCRLayer
+     * @throws IOException when the HOCR file can't be read
+     */
+    public static HOCRLayer read(HOCRReader reader) throws IOException {
+        return read(reader, Integer.MAX_VALUE);
+    }
+
+    /**
+     * read
+     *
+     * reads the boxes of the first pages of a HOCRReader into a new layer
+     *
+     * @param reader the HOCR reader
+     * @param maxPages the number of pages to read
+     * @return HOCRLayer
+     * @throws IOException when the HOCR file can't be read
+     */
+    public static HOCRLayer read(HOCRReader reader, int maxPages) throws IOException {
+        HOCRLayer layer = new HOCRLayer();
+        layer.boxGranularity = reader.getBoxGranularity();
+
+        try {
+            for (HOCRBox box : reader) {
+                if (box.getPage() >= maxPages) {
+                    break;
+                }
+                layer.add(box);
+            }
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+
+        layer.hocrPageCount = Math.min(maxPages, Math.max(layer.pageCount, reader.getPagesRead()));
+
+        return layer;
+    }
+
+    /**
+     * add
+     *
+     * appends a box. Boxes need to be added in page order.
+     *
+     * @param box the box to add
+     */
+    public void add(HOCRBox box) {
+        int page = box.getPage();
+
+        if (page < pageCount - 1) {
+            throw new IllegalArgumentException("box of page " + page + " after page " + (pageCount - 1));
+        }
+
+        while (pageCount <= page) {
+            if (pageCount == pageStarts.length) {
+                pageStarts = Arrays.copyOf(pageStarts, pageCount * 2);
+                pageCoordinates = Arrays.copyOf(pageCoordinates, pageCount * 2);
+            }
+            pageStarts[pageCount] = size;
+            pageCount++;
+        }
+
+        if (pageCoordinates[page] == null) {
+            pageCoordinates[page] = box.getPageCoordinates();
+        }
+
+        if (size == x1.length) {
+            int n = size * 2;
+            x1 = Arrays.copyOf(x1, n);
+            y1 = Arrays.copyOf(y1, n);
+            x2 = Arrays.copyOf(x2, n);
+            y2 = Arrays.copyOf(y2, n);
+            pages = Arrays.copyOf(pages, n);
+            wconf = Arrays.copyOf(wconf, n);
+            lines = Arrays.copyOf(lines, n);
+            textOffsets = Arrays.copyOf(textOffsets, n + 1);
+        }
+
+        String text = box.getText();
+        int offset = textOffsets[size];
+
+        if (offset + text.length() > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, offset + text.length()));
+        }
+
+        text.getChars(0, text.length(), chars, offset);
+
+        x1[size] = box.getX1();
+        y1[size] = box.getY1();
+        x2[size] = box.getX2();
+        y2[size] = box.getY2();
+        pages[size] = page;
+        wconf[size] = box.getWconf();
+        lines[size] = addLine(box);
+        textOffsets[size + 1] = offset + text.length();
+
+        size++;
+    }
+
+    /*
+        adds the line of a box to the line table, unless it's the line of
+        the previous box
+    */
+    private int addLine(HOCRBox box) {
+        HOCRBox line = box.getLineBox();
+
+        if (line == null) {
+            lastLine = -1;
+            return -1;
+        }
+
+        if (box.getLine() == lastLine && lineCount > 0) {
+            return lineCount - 1;
+        }
+
+        if (lineCount == lineX1.length) {
+            int n = lineCount * 2;
+            lineX1 = Arrays.copyOf(lineX1, n);
+            lineY1 = Arrays.copyOf(lineY1, n);
+            lineX2 = Arrays.copyOf(lineX2, n);
+            lineY2 = Arrays.copyOf(lineY2, n);
+            lineBaselineSlope = Arrays.copyOf(lineBaselineSlope, n);
+            lineBaselineOffset = Arrays.copyOf(lineBaselineOffset, n);
+            lineBaseline = Arrays.copyOf(lineBaseline, n);
+        }
+
+        lineX1[lineCount] = line.getX1();
+        lineY1[lineCount] = line.getY1();
+        lineX2[lineCount] = line.getX2();
+        lineY2[lineCount] = line.getY2();
+        lineBaselineSlope[lineCount] = line.getBaselineSlope();
+        lineBaselineOffset[lineCount] = line.getBaselineOffset();
+        lineBaseline[lineCount] = line.hasBaseline();
+        lastLine = box.getLine();
+
+        return lineCount++;
+    }
+
+    /**
+     * get
+     *
+     * loads a row into a (reusable) box
+     *
+     * @param row the row
+     * @param box the box to load the row into
+     * @return the box
+     */
+    public HOCRBox get(int row, HOCRBox box) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+        box.load(this, row, pages[row], pageCoordinates[pages[row]],
+                x1[row], y1[row], x2[row], y2[row], wconf[row], lines[row]);
+        box.setBoxGranularity(boxGranularity);
+        return box;
+    }
+
+    /**
+     * getText
+     *
+     * creates a String of the text of a row
+     *
+     * @param row the row
+     * @return String
+     */
+    public String getText(int row) {
+        return new String(chars, textOffsets[row], textOffsets[row + 1] - textOffsets[row]);
+    }
+
+    /**
+     * getTextLength
+     *
+     * @param row the row
+     * @return the number of characters of the text of a row
+     */
+    public int getTextLength(int row) {
+        return textOffsets[row + 1] - textOffsets[row];
+    }
+
+    /**
+     * getChar
+     *
+     * @param row the row
+     * @param index index in the text of the row
+     * @return a character of the text of a row
+     */
+    public char getChar(int row, int index) {
+        return chars[textOffsets[row] + index];
+    }
+
+    /**
+     * size
+     *
+     * @return the number of boxes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * getPageCount
+     *
+     * @return the number of pages, up to the last page with boxes
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * getHocrPageCount
+     *
+     * @return the number of pages of the HOCR file that were read, also the
+     * pages without boxes at the end
+     */
+    public int getHocrPageCount() {
+        return hocrPageCount;
+    }
+
+    /**
+     * getPageStart
+     *
+     * @param page page number, starting at 0
+     * @return the first row of the page
+     */
+    public int getPageStart(int page) {
+        return page < pageCount ? pageStarts[page] : size;
+    }
+
+    /**
+     * getPageEnd
+     *
+     * @param page page number, starting at 0
+     * @return the row after the last row of the page
+     */
+    public int getPageEnd(int page) {
+        return page + 1 < pageCount ? pageStarts[page + 1] : size;
+    }
+
+    public int getX1(int row) {
+        return x1[row];
+    }
+
+    public int getY1(int row) {
+        return y1[row];
+    }
+
+    public int getX2(int row) {
+        return x2[row];
+    }
+
+    public int getY2(int row) {
+        return y2[row];
+    }
+
+    public int getPage(int row) {
+        return pages[row];
+    }
+
+    /**
+     * getLine
+     *
+     * @param row the row
+     * @return the line of a row, or -1 when the box is not inside a line
+     */
+    public int getLine(int row) {
+        return lines[row];
+    }
+
+    /**
+     * getLineCount
+     *
+     * @return the number of lines in the line table
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLineX1(int line) {
+        return lineX1[line];
+    }
+
+    public int getLineY1(int line) {
+        return lineY1[line];
+    }
+
+    public int getLineX2(int line) {
+        return lineX2[line];
+    }
+
+    public int getLineY2(int line) {
+        return lineY2[line];
+    }
+
+    public boolean hasLineBaseline(int line) {
+        return lineBaseline[line];
+    }
+
+    public float getLineBaselineSlope(int line) {
+        return lineBaselineSlope[line];
+    }
+
+    /**
+     * getLineBaselineOffset
+     *
+     * @param line the line
+     * @return the vertical offset of the baseline, relative to the bottom of the line
+     */
+    public float getLineBaselineOffset(int line) {
+        return lineBaselineOffset[line];
+    }
+
+    public HOCRBoxGranularity getBoxGranularity() {
+        return boxGranularity;
+    }
+}
@@ -1,9 +1,12 @@
 package pdfcreator;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -14,9 +17,13 @@ import org.jsoup.select.Elements;
  *
  * @author Nicolas Franck
  */
-public class HOCRReader implements Iterable<HOCRBox>{
+public class HOCRReader implements Iterable<HOCRBox>, Closeable{
     private File file;
     private HOCRBoxGranularity boxGranularity = HOCRBoxGranularity.WORD;
+    private boolean streaming = false;
+    private final List<HOCRStreamParser> parsers = new ArrayList<HOCRStreamParser>();
+    //the ocr_page elements the last iterator went through
+    private volatile int pagesRead = 0;
 
     public HOCRReader(File file){
         this.file = file;
@@ -39,11 +46,140 @@ public class HOCRReader implements Iterable<HOCRBox>{
         this.boxGranularity = boxGranularity;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * setStreaming
+     *
+     * when true, the boxes are produced while the file is read instead of
+     * after parsing the whole file into a DOM. Memory use stays flat,
+     * whatever the size of the file.
+     *
+     * @param streaming use the streaming parser
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * getPagesRead
+     *
+     * @return the number of ocr_page elements the last iterator went
+     * through, with or without boxes: all of them once it is at the end
+     */
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
     @Override
     public Iterator<HOCRBox> iterator() {
+        if (streaming) {
+            return new HOCRReader.HOCRBoxStreamIterator();
+        }
         return new HOCRReader.HOCRBoxIterator();
     }
 
+    /**
+     * close
+     *
+     * closes the files of the streaming iterators that were not read
+     * until the end
+     *
+     * @throws IOException when a file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (parsers) {
+            for (HOCRStreamParser parser : parsers) {
+                parser.close();
+            }
+            parsers.clear();
+        }
+    }
+
+    static int [] titleExtractBbox(String value){
+
+        HOCRTitle title = new HOCRTitle();
+        checkBbox(title, value);
+
+        return new int [] { title.getX1(), title.getY1(), title.getX2(), title.getY2() };
+    }
+
+    static void checkBbox(HOCRTitle title, String value){
+        if(! title.parse(value)){
+            throw new IllegalArgumentException("no bbox in title \"" + value + "\"");
+        }
+    }
+
+    static Map<String,String>parseTitle(String value){
+        HashMap<String,String> map = new HashMap<String,String>();
+
+        String [] pairs = value.split(";");
+
+        for(String pair:pairs){
+            //replace spaces at start and end!
+            String p = pair.trim();
+            int pos = p.indexOf(' ');
+            if( pos > 0){
+                String k = p.substring(0, pos);
+                String v = p.substring(pos+1);
+                map.put(k,v);
+            }
+            else{
+                map.put(pair,"");
+            }
+
+        }
+
+        return map;
+    }
+
+    private class HOCRBoxStreamIterator implements Iterator<HOCRBox> {
+
+        private HOCRStreamParser parser;
+        private HOCRBox hocrBox;
+        private boolean getNext = true;
+
+        @Override
+        public boolean hasNext() {
+
+            if(getNext){
+
+                try {
+                    if (parser == null) {
+                        parser = new HOCRStreamParser(getFile(), boxGranularity);
+                        synchronized (parsers) {
+                            parsers.add(parser);
+                        }
+                    }
+                    hocrBox = parser.next();
+                    pagesRead = parser.getPageCount();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                getNext = false;
+
+            }
+
+            return hocrBox != null;
+        }
+
+        @Override
+        public HOCRBox next() {
+
+            getNext = hocrBox != null;
+            return hocrBox;
+
+        }
+
+        @Override
+        public void remove() {
+
+        }
+    }
+
     private class HOCRBoxIterator implements Iterator {
 
         private HOCRBox hocrBox;
@@ -53,6 +189,12 @@ public class HOCRReader implements Iterable<HOCRBox>{
         private int currentPageIndex = -1;
         private int [] currentPageCoordinates;
         private Elements boxes;
+        private int boxIndex;
+        private final HOCRTitle title = new HOCRTitle();
+        //the ocr_line of the last word
+        private Element lineElement;
+        private HOCRBox lineBox;
+        private int lines = 0;
 
         private Document getDocument() throws IOException {
 
@@ -76,8 +218,10 @@ public class HOCRReader implements Iterable<HOCRBox>{
 
             hocrBox = null;
 
-            if( boxes == null || boxes.isEmpty()){
+            //skip to the next page with boxes
+            while( boxes == null || boxIndex >= boxes.size()){
                 currentPageIndex++;
+                pagesRead = Math.min(currentPageIndex + 1, getPages().size());
                 if(currentPageIndex >= getPages().size())
                     return;
                 Element page = getPages().get(currentPageIndex);
@@ -86,58 +230,54 @@ public class HOCRReader implements Iterable<HOCRBox>{
                 if (boxGranularity == HOCRBoxGranularity.LINE){
                     boxes = page.getElementsByClass("ocr_line");
                 } else {
-                    boxes = page.getElementsByClass("ocr_word");
-                    boxes.addAll(page.getElementsByClass("ocrx_word"));
+                    //one pass over the page, in document order
+                    boxes = page.select(".ocr_word, .ocrx_word");
                 }
+                boxIndex = 0;
             }
 
-            Element box = boxes.first();
-
-            if(box == null) return;
-
-            boxes.remove(0);
+            Element box = boxes.get(boxIndex++);
 
-            int[] coordinates = titleExtractBbox(box.attr("title"));
+            checkBbox(title, box.attr("title"));
 
-            hocrBox = new HOCRBox(currentPageIndex,currentPageCoordinates, box.text(), coordinates);
+            hocrBox = new HOCRBox(currentPageIndex,currentPageCoordinates, box.text(), title);
             hocrBox.setBoxGranularity(boxGranularity);
 
-        }
-
-        private int [] titleExtractBbox(String value){
-
-            Map<String,String>ocrAttributes = parseTitle(value);
-            String bbox = ocrAttributes.get("bbox");
+            if (boxGranularity == HOCRBoxGranularity.WORD){
+                setLine(box);
+            }
 
-            String [] strCoords = bbox.split(" ");
-            int [] coords = {Integer.parseInt(strCoords[0]),
-                Integer.parseInt(strCoords[1]),
-                Integer.parseInt(strCoords[2]),
-                Integer.parseInt(strCoords[3])};
-            return coords;
         }
 
-        private Map<String,String>parseTitle(String value){
-            HashMap<String,String> map = new HashMap<String,String>();
+        private void setLine(Element box){
 
-            String [] pairs = value.split(";");
-
-            for(String pair:pairs){
-                //replace spaces at start and end!
-                String p = pair.trim();
-                int pos = p.indexOf(' ');
-                if( pos > 0){
-                    String k = p.substring(0, pos);
-                    String v = p.substring(pos+1);
-                    map.put(k,v);
+            Element line = box.parent();
+            while (line != null && ! line.hasClass("ocr_line")){
+                if (line.hasClass("ocr_page")){
+                    line = null;
+                    break;
                 }
-                else{
-                    map.put(pair,"");
+                line = line.parent();
+            }
+
+            if (line == null){
+                return;
+            }
+
+            if (line != lineElement){
+                lineElement = line;
+                lineBox = null;
+                lines++;
+                if (title.parse(line.attr("title"))){
+                    lineBox = new HOCRBox(currentPageIndex,currentPageCoordinates, "", title);
+                    lineBox.setBoxGranularity(HOCRBoxGranularity.LINE);
                 }
+            }
 
+            if (lineBox != null){
+                hocrBox.setLine(lines - 1, lineBox);
             }
 
-            return map;
         }
 
         private Map<String,String>parseStyle(String value){
@@ -0,0 +1,600 @@
+package pdfcreator;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.parser.Parser;
+
+/**
+ * Streaming HOCR parser
+ *
+ * Scans the HOCR file tag by tag and produces HOCRBox instances while it
+ * reads, instead of building a DOM of the whole file. Only the element
+ * stack and the text of the boxes that are open are kept in memory.
+ *
+ * The scanner is lenient: HOCR is not always well-formed XML, so void
+ * elements, unclosed elements and unquoted attributes are accepted as in
+ * HTML. Boxes are returned in document order and only inside an ocr_page,
+ * like the DOM based reader does. Word boxes know the ocr_line they are in.
+ */
+class HOCRStreamParser implements Closeable {
+
+    private static final String[] VOID_ELEMENTS = {
+        "area", "base", "br", "col", "embed", "hr", "img", "input",
+        "link", "meta", "param", "source", "track", "wbr"
+    };
+
+    private static final int ROLE_NONE = 0;
+    private static final int ROLE_PAGE = 1;
+    private static final int ROLE_BOX = 2;
+    private static final int ROLE_LINE = 3;
+
+    private final Reader in;
+    private final HOCRBoxGranularity boxGranularity;
+
+    private final char[] buf = new char[64 * 1024];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    //element stack
+    private String[] names = new String[64];
+    private int[] roles = new int[64];
+    private int[] textStarts = new int[64];
+    private int[] sequences = new int[64];
+    private int depth = 0;
+
+    private int openPages = 0;
+    private int openBoxes = 0;
+    private int page = -1;
+    private int [] pageCoordinates;
+    private int sequence = 0;
+
+    //the open ocr_line, when reading words
+    private int lines = 0;
+    private int line = -1;
+    private HOCRBox lineBox;
+
+    //text of the open boxes, and the title of each open box
+    private final StringBuilder text = new StringBuilder();
+    private final List<String> titles = new ArrayList<String>();
+    private final List<PendingBox> completed = new ArrayList<PendingBox>();
+    private final ArrayDeque<HOCRBox> queue = new ArrayDeque<HOCRBox>();
+
+    private final StringBuilder scratch = new StringBuilder();
+    private final HOCRTitle hocrTitle = new HOCRTitle();
+
+    HOCRStreamParser(File file, HOCRBoxGranularity boxGranularity) throws IOException {
+        this.in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        this.boxGranularity = boxGranularity;
+    }
+
+    /**
+     * next
+     *
+     * returns the next box in the file, or null at the end of the file
+     *
+     * @return HOCRBox
+     * @throws IOException when the file can't be read
+     */
+    HOCRBox next() throws IOException {
+
+        while (queue.isEmpty()) {
+            int c = read();
+
+            if (c == -1) {
+                close();
+                return null;
+            }
+
+            if (c == '<') {
+                markup();
+            } else if (openBoxes > 0) {
+                if (c == '&') {
+                    text.append(entity());
+                } else {
+                    text.append((char) c);
+                }
+            }
+        }
+
+        return queue.poll();
+    }
+
+    /**
+     * getPageCount
+     *
+     * @return the number of ocr_page elements read so far, with or without
+     * boxes
+     */
+    int getPageCount() {
+        return page + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void markup() throws IOException {
+        int c = peek();
+
+        if (c == '!') {
+            read();
+            if (lookingAt("--")) {
+                skipPast("-->");
+            } else if (lookingAt("[CDATA[")) {
+                cdata();
+            } else {
+                skipPast(">");
+            }
+        } else if (c == '?') {
+            skipPast(">");
+        } else if (c == '/') {
+            read();
+            String name = readName();
+            skipPast(">");
+            if (name.length() > 0) {
+                endElement(name);
+            }
+        } else if (isNameStart(c)) {
+            startTag();
+        } else if (openBoxes > 0) {
+            text.append('<');
+        }
+    }
+
+    private void startTag() throws IOException {
+        String name = readName();
+        String classes = null;
+        String title = null;
+        boolean selfClosing = false;
+
+        while (true) {
+            skipWhitespace();
+            int c = read();
+
+            if (c == -1 || c == '>') {
+                break;
+            }
+            if (c == '/') {
+                if (peek() == '>') {
+                    read();
+                    selfClosing = true;
+                    break;
+                }
+                continue;
+            }
+
+            unread();
+            String attr = readAttributeName();
+            String value = "";
+            skipWhitespace();
+            if (peek() == '=') {
+                read();
+                skipWhitespace();
+                value = readAttributeValue();
+            }
+
+            if (attr.equalsIgnoreCase("class")) {
+                classes = value;
+            } else if (attr.equalsIgnoreCase("title")) {
+                title = value;
+            }
+        }
+
+        if (name.equalsIgnoreCase("script") || name.equalsIgnoreCase("style")) {
+            if (! selfClosing) {
+                skipRawText(name);
+            }
+            return;
+        }
+
+        if (name.equalsIgnoreCase("br")) {
+            if (openBoxes > 0) {
+                text.append(' ');
+            }
+            return;
+        }
+
+        int role = ROLE_NONE;
+
+        if (classes != null) {
+            if (hasClass(classes, "ocr_page")) {
+                role = ROLE_PAGE;
+            } else if (openPages > 0 && isBoxClass(classes)) {
+                role = ROLE_BOX;
+            } else if (openPages > 0 && openBoxes == 0
+                    && boxGranularity == HOCRBoxGranularity.WORD && hasClass(classes, "ocr_line")) {
+                role = ROLE_LINE;
+            }
+        }
+
+        if (role == ROLE_PAGE) {
+            page++;
+            pageCoordinates = HOCRReader.titleExtractBbox(title);
+        } else if (role == ROLE_LINE) {
+            //an empty line has no words, there's nothing to remember
+            if (selfClosing || isVoidElement(name)) {
+                return;
+            }
+            line = lines++;
+            lineBox = null;
+            if (hocrTitle.parse(title)) {
+                lineBox = new HOCRBox(page, pageCoordinates, "", hocrTitle);
+                lineBox.setBoxGranularity(HOCRBoxGranularity.LINE);
+            }
+        }
+
+        if (selfClosing || isVoidElement(name)) {
+            //an empty box still counts
+            if (role == ROLE_BOX) {
+                completed.add(new PendingBox(sequence++, createBox(title, "")));
+                flushCompleted();
+            }
+            return;
+        }
+
+        push(name, role, title);
+    }
+
+    private void push(String name, int role, String title) {
+        if (depth == names.length) {
+            int n = depth * 2;
+            String[] newNames = new String[n];
+            int[] newRoles = new int[n];
+            int[] newStarts = new int[n];
+            int[] newSequences = new int[n];
+            System.arraycopy(names, 0, newNames, 0, depth);
+            System.arraycopy(roles, 0, newRoles, 0, depth);
+            System.arraycopy(textStarts, 0, newStarts, 0, depth);
+            System.arraycopy(sequences, 0, newSequences, 0, depth);
+            names = newNames;
+            roles = newRoles;
+            textStarts = newStarts;
+            sequences = newSequences;
+        }
+
+        names[depth] = name;
+        roles[depth] = role;
+        textStarts[depth] = text.length();
+        sequences[depth] = -1;
+
+        if (role == ROLE_PAGE) {
+            openPages++;
+        } else if (role == ROLE_BOX) {
+            openBoxes++;
+            titles.add(title);
+            sequences[depth] = sequence++;
+        }
+
+        depth++;
+    }
+
+    private void endElement(String name) {
+        int i = depth - 1;
+
+        while (i >= 0 && ! names[i].equalsIgnoreCase(name)) {
+            i--;
+        }
+
+        //end tag without start tag
+        if (i < 0) {
+            return;
+        }
+
+        while (depth > i) {
+            pop();
+        }
+
+        flushCompleted();
+    }
+
+    private void pop() {
+        depth--;
+
+        int role = roles[depth];
+        names[depth] = null;
+
+        if (role == ROLE_PAGE) {
+            openPages--;
+        } else if (role == ROLE_LINE) {
+            line = -1;
+            lineBox = null;
+        } else if (role == ROLE_BOX) {
+            String title = titles.remove(titles.size() - 1);
+            String boxText = normalise(text, textStarts[depth]);
+            completed.add(new PendingBox(sequences[depth], createBox(title, boxText)));
+            openBoxes--;
+            if (openBoxes == 0) {
+                text.setLength(0);
+            }
+        }
+    }
+
+    private HOCRBox createBox(String title, String boxText) {
+        HOCRReader.checkBbox(hocrTitle, title);
+        HOCRBox box = new HOCRBox(page, pageCoordinates, boxText, hocrTitle);
+        box.setBoxGranularity(boxGranularity);
+        if (lineBox != null) {
+            box.setLine(line, lineBox);
+        }
+        return box;
+    }
+
+    /*
+        nested boxes are completed before the box that contains them:
+        release them in document order once the outer box is closed
+    */
+    private void flushCompleted() {
+        if (openBoxes > 0 || completed.isEmpty()) {
+            return;
+        }
+
+        if (completed.size() > 1) {
+            Collections.sort(completed, new Comparator<PendingBox>() {
+                @Override
+                public int compare(PendingBox a, PendingBox b) {
+                    return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+                }
+            });
+        }
+
+        for (PendingBox pending : completed) {
+            queue.add(pending.box);
+        }
+
+        completed.clear();
+    }
+
+    private boolean isBoxClass(String classes) {
+        if (boxGranularity == HOCRBoxGranularity.LINE) {
+            return hasClass(classes, "ocr_line");
+        }
+        return hasClass(classes, "ocr_word") || hasClass(classes, "ocrx_word");
+    }
+
+    static boolean hasClass(String classes, String name) {
+        int n = classes.length();
+        int len = name.length();
+        int i = 0;
+
+        while (i < n) {
+            while (i < n && Character.isWhitespace(classes.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && ! Character.isWhitespace(classes.charAt(i))) {
+                i++;
+            }
+            if (i - start == len && classes.regionMatches(true, start, name, 0, len)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isVoidElement(String name) {
+        for (String e : VOID_ELEMENTS) {
+            if (e.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //same whitespace rules as jsoup's Element.text()
+    private static String normalise(StringBuilder sb, int start) {
+        StringBuilder out = new StringBuilder(sb.length() - start);
+        boolean lastWasWhite = true;
+
+        for (int i = start ; i < sb.length() ; i++) {
+            char c = sb.charAt(i);
+            if (StringUtil.isActuallyWhitespace(c)) {
+                if (! lastWasWhite) {
+                    out.append(' ');
+                    lastWasWhite = true;
+                }
+            } else {
+                out.append(c);
+                lastWasWhite = false;
+            }
+        }
+
+        return out.toString().trim();
+    }
+
+    private String entity() throws IOException {
+        scratch.setLength(0);
+        scratch.append('&');
+
+        while (scratch.length() < 32) {
+            int c = peek();
+            if (c == -1 || c == '<' || c == '&' || Character.isWhitespace(c)) {
+                break;
+            }
+            scratch.append((char) read());
+            if (c == ';') {
+                break;
+            }
+        }
+
+        return Parser.unescapeEntities(scratch.toString(), false);
+    }
+
+    private void cdata() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ']' && lookingAt("]>")) {
+                return;
+            }
+            if (openBoxes > 0) {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private void skipRawText(String name) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<' && peek() == '/') {
+                read();
+                String end = readName();
+                if (end.equalsIgnoreCase(name)) {
+                    skipPast(">");
+                    return;
+                }
+            }
+        }
+    }
+
+    private String readName() throws IOException {
+        scratch.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == ':' || c == '-' || c == '_')) {
+            scratch.append((char) read());
+        }
+        return scratch.toString();
+    }
+
+    private String readAttributeName() throws IOException {
+        scratch.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && c != '=' && c != '>' && c != '/' && ! Character.isWhitespace(c)) {
+            scratch.append((char) read());
+        }
+        if (scratch.length() == 0) {
+            //skip a character we can't make sense of
+            read();
+        }
+        return scratch.toString();
+    }
+
+    private String readAttributeValue() throws IOException {
+        scratch.setLength(0);
+        int quote = peek();
+        int c;
+
+        if (quote == '"' || quote == '\'') {
+            read();
+            while ((c = read()) != -1 && c != quote) {
+                scratch.append((char) c);
+            }
+        } else {
+            while ((c = peek()) != -1 && c != '>' && ! Character.isWhitespace(c)) {
+                scratch.append((char) read());
+            }
+        }
+
+        String value = scratch.toString();
+
+        return value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value;
+    }
+
+    private static boolean isNameStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            read();
+        }
+    }
+
+    private void skipPast(String end) throws IOException {
+        char first = end.charAt(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == first && lookingAt(end.substring(1))) {
+                return;
+            }
+        }
+    }
+
+    /*
+        consumes s when the input continues with it
+    */
+    private boolean lookingAt(String s) throws IOException {
+        if (s.length() == 0) {
+            return true;
+        }
+        if (! ensure(s.length())) {
+            return false;
+        }
+        for (int i = 0 ; i < s.length() ; i++) {
+            if (buf[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        pos += s.length();
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (pos >= limit && ! ensure(1)) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private void unread() {
+        pos--;
+    }
+
+    private int peek() throws IOException {
+        if (pos >= limit && ! ensure(1)) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    /*
+        makes sure n characters are available in the buffer
+    */
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (eof) {
+            return false;
+        }
+
+        //keep one character before pos for unread()
+        int keep = pos > 0 ? pos - 1 : 0;
+        System.arraycopy(buf, keep, buf, 0, limit - keep);
+        limit -= keep;
+        pos -= keep;
+
+        while (limit - pos < n) {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r == -1) {
+                eof = true;
+                return false;
+            }
+            limit += r;
+        }
+
+        return true;
+    }
+
+    private static class PendingBox {
+        final int sequence;
+        final HOCRBox box;
+
+        PendingBox(int sequence, HOCRBox box) {
+            this.sequence = sequence;
+            this.box = box;
+        }
+    }
+}
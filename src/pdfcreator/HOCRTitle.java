@@ -0,0 +1,262 @@
+package pdfcreator;
+
+/**
+ * Scanner for the title attribute of HOCR elements
+ *
+ * Reads the bbox, x_wconf, baseline and x_size properties straight out of
+ * the title into primitive fields, without splitting the title into
+ * strings. One instance can be reused for any number of titles, it is not
+ * thread-safe.
+ *
+ * E.g. title="bbox 10 20 110 60; baseline 0.004 -7; x_size 31; x_wconf 93"
+ */
+public class HOCRTitle {
+
+    private int x1, y1, x2, y2;
+    private boolean bbox;
+    private int wconf;
+    private boolean hasWconf;
+    private float baselineSlope, baselineOffset;
+    private boolean hasBaseline;
+    private float xSize;
+    private boolean hasXSize;
+
+    //scanner state
+    private CharSequence cs;
+    private int pos;
+    private int end;
+    private boolean numberFound;
+
+    /**
+     * parse
+     *
+     * scans a title and sets the properties that were found
+     *
+     * @param title the value of the title attribute (may be null)
+     * @return true when the title contains a bbox
+     */
+    public boolean parse(CharSequence title) {
+        bbox = false;
+        hasWconf = false;
+        hasBaseline = false;
+        hasXSize = false;
+
+        if (title == null) {
+            return false;
+        }
+
+        cs = title;
+        pos = 0;
+        end = title.length();
+
+        while (pos < end) {
+            skipSpaces();
+
+            int keyStart = pos;
+            while (pos < end && ! isSpace(cs.charAt(pos)) && cs.charAt(pos) != ';') {
+                pos++;
+            }
+            int keyLength = pos - keyStart;
+
+            numberFound = true;
+
+            if (keyIs(keyStart, keyLength, "bbox")) {
+                int a = nextInt(), b = nextInt(), c = nextInt(), d = nextInt();
+                if (numberFound) {
+                    x1 = a; y1 = b; x2 = c; y2 = d;
+                    bbox = true;
+                }
+            } else if (keyIs(keyStart, keyLength, "x_wconf")) {
+                float w = nextFloat();
+                if (numberFound) {
+                    wconf = (int) w;
+                    hasWconf = true;
+                }
+            } else if (keyIs(keyStart, keyLength, "baseline")) {
+                float slope = nextFloat(), offset = nextFloat();
+                if (numberFound) {
+                    baselineSlope = slope;
+                    baselineOffset = offset;
+                    hasBaseline = true;
+                }
+            } else if (keyIs(keyStart, keyLength, "x_size")) {
+                float size = nextFloat();
+                if (numberFound) {
+                    xSize = size;
+                    hasXSize = true;
+                }
+            }
+
+            skipProperty();
+        }
+
+        cs = null;
+
+        return bbox;
+    }
+
+    /*
+        moves past the ';' that ends the current property, ignoring ';'
+        inside quoted values like image "a;b.tif"
+    */
+    private void skipProperty() {
+        boolean quoted = false;
+
+        while (pos < end) {
+            char c = cs.charAt(pos++);
+            if (c == '"') {
+                quoted = ! quoted;
+            } else if (c == ';' && ! quoted) {
+                return;
+            }
+        }
+    }
+
+    private boolean keyIs(int start, int length, String key) {
+        if (length != key.length()) {
+            return false;
+        }
+        for (int i = 0 ; i < length ; i++) {
+            if (cs.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipSpaces() {
+        while (pos < end && isSpace(cs.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /*
+        numberFound turns false when a number is missing, so a property
+        is only accepted when all of its numbers were read
+    */
+    private int nextInt() {
+        skipSpaces();
+
+        boolean negative = false;
+        if (pos < end && (cs.charAt(pos) == '-' || cs.charAt(pos) == '+')) {
+            negative = cs.charAt(pos) == '-';
+            pos++;
+        }
+
+        int start = pos;
+        int value = 0;
+        while (pos < end && cs.charAt(pos) >= '0' && cs.charAt(pos) <= '9') {
+            value = value * 10 + (cs.charAt(pos) - '0');
+            pos++;
+        }
+
+        //a fraction is dropped, coordinates are integers
+        if (pos < end && cs.charAt(pos) == '.') {
+            pos++;
+            while (pos < end && cs.charAt(pos) >= '0' && cs.charAt(pos) <= '9') {
+                pos++;
+            }
+        }
+
+        numberFound &= pos > start;
+
+        return negative ? -value : value;
+    }
+
+    private float nextFloat() {
+        skipSpaces();
+
+        boolean negative = false;
+        if (pos < end && (cs.charAt(pos) == '-' || cs.charAt(pos) == '+')) {
+            negative = cs.charAt(pos) == '-';
+            pos++;
+        }
+
+        int start = pos;
+        double value = 0;
+        while (pos < end && cs.charAt(pos) >= '0' && cs.charAt(pos) <= '9') {
+            value = value * 10 + (cs.charAt(pos) - '0');
+            pos++;
+        }
+
+        if (pos < end && cs.charAt(pos) == '.') {
+            pos++;
+            double scale = 0.1;
+            while (pos < end && cs.charAt(pos) >= '0' && cs.charAt(pos) <= '9') {
+                value += (cs.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+
+        numberFound &= pos > start;
+
+        return (float) (negative ? -value : value);
+    }
+
+    public boolean hasBbox() {
+        return bbox;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    public boolean hasWconf() {
+        return hasWconf;
+    }
+
+    /**
+     * getWconf
+     *
+     * word confidence (0-100), or -1 when the title has no x_wconf
+     *
+     * @return int
+     */
+    public int getWconf() {
+        return hasWconf ? wconf : -1;
+    }
+
+    public boolean hasBaseline() {
+        return hasBaseline;
+    }
+
+    public float getBaselineSlope() {
+        return baselineSlope;
+    }
+
+    /**
+     * getBaselineOffset
+     *
+     * vertical offset of the baseline, relative to the bottom of the bbox
+     *
+     * @return float
+     */
+    public float getBaselineOffset() {
+        return baselineOffset;
+    }
+
+    public boolean hasXSize() {
+        return hasXSize;
+    }
+
+    public float getXSize() {
+        return xSize;
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.ImgCCITT;
+import com.itextpdf.text.ImgRaw;
+import com.itextpdf.text.Jpeg;
+import com.itextpdf.text.Jpeg2000;
+import com.itextpdf.text.pdf.ICC_Profile;
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * How the page images are embedded: as they are (archival), or downsampled
+ * and compressed again for access copies.
+ *
+ *   archival       - the images as they are (default)
+ *   access         - 150 dpi, JPEG quality 70
+ *   bitonal-g4     - black and white, CCITT G4, at the resolution of the image
+ *   jpeg:DPI:Q     - JPEG of quality Q (1-100) at DPI
+ *   g4:DPI         - black and white, CCITT G4 at DPI
+ *   flate:DPI      - Flate at DPI
+ *
+ * A DPI of 0 keeps the resolution of the image. Images are only made
+ * smaller, never larger: an image that isn't downsampled and is already in
+ * the encoding of the profile is kept, black and white images stay CCITT G4
+ * and an encoding that doesn't make the image smaller than its file is
+ * dropped. The page keeps its size, the smaller image is scaled to fill it
+ * so the text layer still fits.
+ */
+public class ImageProfile {
+    public enum Encoding {
+        KEEP, JPEG, G4, FLATE
+    }
+
+    public static final ImageProfile ARCHIVAL = new ImageProfile("archival", Encoding.KEEP, 0, 0);
+
+    //the grayscale level under which a pixel becomes black
+    private static final int THRESHOLD = 128;
+
+    private final String name;
+    private final Encoding encoding;
+    private final int dpi;
+    private final int quality;
+
+    public ImageProfile(String name, Encoding encoding, int dpi, int quality) {
+        this.name = name;
+        this.encoding = encoding;
+        this.dpi = dpi;
+        this.quality = quality;
+    }
+
+    /**
+     * Returns the profile for the argument of the -p option
+     *
+     * @param profile a profile name or a custom profile
+     * @return the profile
+     * @throws IllegalArgumentException when the profile is unknown
+     */
+    public static ImageProfile parse(String profile) {
+        if ("archival".equals(profile)) {
+            return ARCHIVAL;
+        }
+        if ("access".equals(profile)) {
+            return new ImageProfile(profile, Encoding.JPEG, 150, 70);
+        }
+        if ("bitonal-g4".equals(profile)) {
+            return new ImageProfile(profile, Encoding.G4, 0, 0);
+        }
+
+        String[] parts = profile.split(":");
+
+        try {
+            if (parts.length == 3 && parts[0].equals("jpeg")) {
+                int quality = Integer.parseInt(parts[2]);
+                if (quality < 1 || quality > 100) {
+                    throw new IllegalArgumentException("JPEG quality must be 1-100 in '" + profile + "'");
+                }
+                return new ImageProfile(profile, Encoding.JPEG, parseDpi(parts[1]), quality);
+            }
+            if (parts.length == 2 && parts[0].equals("g4")) {
+                return new ImageProfile(profile, Encoding.G4, parseDpi(parts[1]), 0);
+            }
+            if (parts.length == 2 && parts[0].equals("flate")) {
+                return new ImageProfile(profile, Encoding.FLATE, parseDpi(parts[1]), 0);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid number in '" + profile + "'");
+        }
+
+        throw new IllegalArgumentException("unknown profile '" + profile + "'");
+    }
+
+    private static int parseDpi(String dpi) {
+        int value = Integer.parseInt(dpi);
+
+        if (value < 0) {
+            throw new NumberFormatException(dpi);
+        }
+
+        return value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * isArchival
+     *
+     * @return true when the images are embedded as they are
+     */
+    public boolean isArchival() {
+        return encoding == Encoding.KEEP;
+    }
+
+    /**
+     * Downsamples and compresses the image of a page
+     *
+     * @param filename the page image
+     * @param image the image as it would be embedded, for its size,
+     *        resolution and color profile
+     * @param raster the raster of a TIFF image, or null to decode the file
+     * @return the new image, scaled to the size of the original, or null
+     *         to keep the image: it can't be decoded here (JPEG 2000, CMYK),
+     *         it is already in the encoding of the profile and isn't
+     *         downsampled, or the new image isn't smaller
+     * @throws IOException when the image can't be read
+     * @throws BadElementException when the new image can't be created
+     */
+    public Image apply(String filename, Image image, TiffRaster raster) throws IOException, BadElementException {
+        if (isArchival() || image instanceof Jpeg2000) {
+            return null;
+        }
+
+        if (dpi > 0 && (image.getDpiX() == 0 || image.getDpiY() == 0)) {
+            System.err.println("warning: no resolution in " + filename + ", kept at its size");
+        }
+
+        //black and white images are smallest as G4, whatever the profile
+        boolean bitonal = raster != null ? raster.isBitonal() : image instanceof ImgCCITT;
+        Encoding target = bitonal ? Encoding.G4 : encoding;
+
+        int width = raster != null ? raster.getWidth() : (int) image.getWidth();
+        int height = raster != null ? raster.getHeight() : (int) image.getHeight();
+        boolean downsampled = getTargetSize(width, image.getDpiX()) < width
+                || getTargetSize(height, image.getDpiY()) < height;
+
+        if (! downsampled && isEncodedAs(target, image, raster)) {
+            return null;
+        }
+
+        Downsampler samples;
+
+        if (raster != null) {
+            samples = read(raster, image, target);
+        } else {
+            samples = read(new File(filename), image, target);
+        }
+
+        if (samples == null) {
+            return null;
+        }
+
+        Image result;
+        int size;
+
+        switch (target) {
+            case JPEG:
+                //Flate first, encodeJpeg reorders the samples
+                byte[] deflated = encodeFlate(samples);
+                byte[] jpeg = encodeJpeg(samples);
+
+                //DCT is larger than Flate for e.g. mostly white grayscale pages
+                if (jpeg.length <= deflated.length) {
+                    result = Image.getInstance(jpeg);
+                    size = jpeg.length;
+                } else {
+                    result = getFlateImage(samples, deflated);
+                    size = deflated.length;
+                }
+                break;
+            case G4:
+                byte[] g4 = encodeG4(samples);
+                result = Image.getInstance(samples.getWidth(), samples.getHeight(), false,
+                        Image.CCITTG4, 0, g4);
+                size = g4.length;
+                break;
+            default:
+                byte[] data = encodeFlate(samples);
+                result = getFlateImage(samples, data);
+                size = data.length;
+                break;
+        }
+
+        if (size >= new File(filename).length()) {
+            return null;
+        }
+
+        int dpiX = image.getDpiX();
+        int dpiY = image.getDpiY();
+
+        if (dpiX > 0 && dpiY > 0) {
+            result.setDpi(Math.round((float) dpiX * samples.getWidth() / image.getWidth()),
+                    Math.round((float) dpiY * samples.getHeight() / image.getHeight()));
+        }
+
+        ICC_Profile icc = image.getICCProfile();
+
+        if (icc != null && target != Encoding.G4 && icc.getNumComponents() == samples.getChannels()) {
+            result.tagICC(icc);
+        }
+
+        result.scaleAbsolute(image.getScaledWidth(), image.getScaledHeight());
+
+        return result;
+    }
+
+    /*
+        true when the image is embedded in this encoding when it is kept: a
+        JPEG as it is, a bitonal TIFF as G4 and other TIFF rasters as Flate
+    */
+    private static boolean isEncodedAs(Encoding encoding, Image image, TiffRaster raster) {
+        switch (encoding) {
+            case JPEG:
+                return image instanceof Jpeg;
+            case G4:
+                return raster != null ? raster.isBitonal() : image instanceof ImgCCITT;
+            case FLATE:
+                return raster != null && ! raster.isBitonal();
+            default:
+                return true;
+        }
+    }
+
+    private static Image getFlateImage(Downsampler samples, byte[] deflated) throws BadElementException {
+        Image img = new ImgRaw(samples.getWidth(), samples.getHeight(), samples.getChannels(), 8, deflated);
+        img.setDeflated(true);
+        return img;
+    }
+
+    /*
+        the size of the new image: the resolution of the profile, or the
+        size of the image when it is already at or below that resolution
+    */
+    private int getTargetSize(int pixels, int imageDpi) {
+        if (dpi == 0 || imageDpi == 0 || imageDpi <= dpi) {
+            return pixels;
+        }
+
+        return Math.max(1, Math.round((float) pixels * dpi / imageDpi));
+    }
+
+    private Downsampler read(TiffRaster raster, Image image, Encoding target) throws IOException {
+        int samplesPerPixel = raster.getSamplesPerPixel();
+
+        if (samplesPerPixel == 4) {
+            return null;
+        }
+
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int channels = target == Encoding.G4 ? 1 : samplesPerPixel;
+
+        Downsampler samples = new Downsampler(width, height,
+                getTargetSize(width, image.getDpiX()), getTargetSize(height, image.getDpiY()), channels);
+
+        byte[] row = new byte[raster.getRowLength()];
+        byte[] pixels = new byte[width * samplesPerPixel];
+        byte[] gray = channels == samplesPerPixel ? null : new byte[width];
+        InputStream rows = raster.openRows();
+
+        try {
+            for (int y = 0 ; y < height ; y++) {
+                readFully(rows, row);
+
+                if (raster.isBitonal()) {
+                    //a set bit is white, unless white is zero
+                    for (int x = 0 ; x < width ; x++) {
+                        boolean set = (row[x >> 3] & (0x80 >> (x & 7))) != 0;
+                        pixels[x] = set != raster.isWhiteIsZero() ? (byte) 255 : 0;
+                    }
+                } else if (raster.isWhiteIsZero()) {
+                    for (int x = 0 ; x < width ; x++) {
+                        pixels[x] = (byte) ~row[x];
+                    }
+                } else {
+                    System.arraycopy(row, 0, pixels, 0, pixels.length);
+                }
+
+                if (gray == null) {
+                    samples.addRow(pixels);
+                } else {
+                    toGray(pixels, gray, width);
+                    samples.addRow(gray);
+                }
+            }
+        } finally {
+            rows.close();
+        }
+
+        return samples;
+    }
+
+    private Downsampler read(File file, Image image, Encoding target) throws IOException {
+        BufferedImage decoded;
+
+        try {
+            decoded = ImageIO.read(file);
+        } catch (IIOException ex) {
+            //e.g. a CMYK JPEG
+            System.err.println("warning: " + file + ": can't decode for profile " + name + ": " + ex.getMessage());
+            return null;
+        }
+
+        if (decoded == null) {
+            return null;
+        }
+
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        Raster raster = decoded.getRaster();
+        boolean gray = target == Encoding.G4 || decoded.getType() == BufferedImage.TYPE_BYTE_GRAY
+                || decoded.getType() == BufferedImage.TYPE_BYTE_BINARY;
+        int channels = gray ? 1 : 3;
+
+        Downsampler samples = new Downsampler(width, height,
+                getTargetSize(width, image.getDpiX()), getTargetSize(height, image.getDpiY()), channels);
+
+        int[] argb = new int[width];
+        byte[] pixels = new byte[width * 3];
+        byte[] row = new byte[width];
+
+        for (int y = 0 ; y < height ; y++) {
+            if (decoded.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                raster.getDataElements(0, y, width, 1, row);
+                samples.addRow(row);
+                continue;
+            }
+
+            decoded.getRGB(0, y, width, 1, argb, 0, width);
+
+            for (int x = 0 ; x < width ; x++) {
+                pixels[x * 3] = (byte) (argb[x] >> 16);
+                pixels[x * 3 + 1] = (byte) (argb[x] >> 8);
+                pixels[x * 3 + 2] = (byte) argb[x];
+            }
+
+            if (gray) {
+                toGray(pixels, row, width);
+                samples.addRow(row);
+            } else {
+                samples.addRow(pixels);
+            }
+        }
+
+        return samples;
+    }
+
+    private static void toGray(byte[] rgb, byte[] gray, int width) {
+        for (int x = 0 ; x < width ; x++) {
+            int r = rgb[x * 3] & 0xFF;
+            int g = rgb[x * 3 + 1] & 0xFF;
+            int b = rgb[x * 3 + 2] & 0xFF;
+            gray[x] = (byte) ((r * 299 + g * 587 + b * 114) / 1000);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int done = 0;
+
+        while (done < buffer.length) {
+            int n = in.read(buffer, done, buffer.length - done);
+            if (n < 0) {
+                throw new IOException("image data ends too early");
+            }
+            done += n;
+        }
+    }
+
+    private byte[] encodeJpeg(Downsampler samples) throws IOException {
+        int width = samples.getWidth();
+        int height = samples.getHeight();
+        BufferedImage img = new BufferedImage(width, height,
+                samples.getChannels() == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+
+        byte[] data = samples.getData();
+
+        if (samples.getChannels() == 1) {
+            img.getRaster().setDataElements(0, 0, width, height, data);
+        } else {
+            //the raster of TYPE_3BYTE_BGR is in BGR order
+            for (int i = 0 ; i < data.length ; i += 3) {
+                byte r = data[i];
+                data[i] = data[i + 2];
+                data[i + 2] = r;
+            }
+            img.getRaster().setDataElements(0, 0, width, height, data);
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+        ImageOutputStream out = ImageIO.createImageOutputStream(bas);
+
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+
+        return bas.toByteArray();
+    }
+
+    private static byte[] encodeFlate(Downsampler samples) throws IOException {
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(bas);
+
+        try {
+            out.write(samples.getData());
+        } finally {
+            out.close();
+        }
+
+        return bas.toByteArray();
+    }
+
+    private static byte[] encodeG4(Downsampler samples) {
+        int width = samples.getWidth();
+        int height = samples.getHeight();
+        byte[] data = samples.getData();
+        byte[] row = new byte[(width + 7) / 8];
+        CCITTG4Encoder encoder = new CCITTG4Encoder(width);
+
+        //a set bit is black, as the image gets no BlackIs1
+        for (int y = 0 ; y < height ; y++) {
+            Arrays.fill(row, (byte) 0);
+
+            for (int x = 0 ; x < width ; x++) {
+                if ((data[y * width + x] & 0xFF) < THRESHOLD) {
+                    row[x >> 3] |= 0x80 >> (x & 7);
+                }
+            }
+
+            encoder.fax4Encode(row, 0, row.length);
+        }
+
+        return encoder.close();
+    }
+
+    /**
+     * Profiles are equal when they give the same images, whatever their name
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (! (o instanceof ImageProfile)) {
+            return false;
+        }
+        ImageProfile other = (ImageProfile) o;
+        return encoding == other.encoding && dpi == other.dpi && quality == other.quality;
+    }
+
+    @Override
+    public int hashCode() {
+        return (encoding.hashCode() * 31 + dpi) * 31 + quality;
+    }
+
+    @Override
+    public String toString() {
+        if (isArchival()) {
+            return name;
+        }
+        return String.format(Locale.ROOT, "%s (%s%s%s)", name, encoding.name().toLowerCase(Locale.ROOT),
+                dpi > 0 ? " " + dpi + " dpi" : "", encoding == Encoding.JPEG ? " quality " + quality : "");
+    }
+
+    /*
+        averages the rows that are added into boxes of the target size
+    */
+    private static class Downsampler {
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int width;
+        private final int height;
+        private final int channels;
+        private final int[] columns;
+        private final int[] columnCounts;
+        private final long[] sums;
+        private final byte[] data;
+        private int sourceY;
+        private int targetY;
+        private int rowCount;
+
+        Downsampler(int sourceWidth, int sourceHeight, int width, int height, int channels) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.columns = new int[sourceWidth];
+            this.columnCounts = new int[width];
+            this.sums = new long[width * channels];
+            this.data = new byte[width * height * channels];
+
+            for (int x = 0 ; x < sourceWidth ; x++) {
+                columns[x] = (int) ((long) x * width / sourceWidth);
+                columnCounts[columns[x]]++;
+            }
+        }
+
+        void addRow(byte[] row) {
+            int y = (int) ((long) sourceY * height / sourceHeight);
+
+            if (y != targetY) {
+                flush();
+                targetY = y;
+            }
+
+            for (int x = 0 ; x < sourceWidth ; x++) {
+                int target = columns[x] * channels;
+                for (int c = 0 ; c < channels ; c++) {
+                    sums[target + c] += row[x * channels + c] & 0xFF;
+                }
+            }
+
+            rowCount++;
+            sourceY++;
+
+            if (sourceY == sourceHeight) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (rowCount == 0) {
+                return;
+            }
+
+            int offset = targetY * width * channels;
+
+            for (int x = 0 ; x < width ; x++) {
+                long count = (long) columnCounts[x] * rowCount;
+                for (int c = 0 ; c < channels ; c++) {
+                    int i = x * channels + c;
+                    data[offset + i] = (byte) ((sums[i] + count / 2) / count);
+                    sums[i] = 0;
+                }
+            }
+
+            rowCount = 0;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        int getChannels() {
+            return channels;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+}
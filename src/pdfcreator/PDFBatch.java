@@ -0,0 +1,217 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the batch lines of PDFCreator -b and -B on a bounded pool of workers.
+ *
+ * Every worker thread owns its own PDFCreator instance, so no writer state
+ * is shared between documents. A failing line is reported and counted, the
+ * other lines continue.
+ *
+ * The lines are parsed and their directories listed ahead of the workers,
+ * on a pool of their own, so the directory I/O of the next lines overlaps
+ * with the PDF generation of the current ones.
+ */
+public class PDFBatch {
+    private final int jobs;
+    private final DirectoryScanner scanner;
+    private boolean jobLines = false;
+
+    private final AtomicInteger documents = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    private final ThreadLocal<PDFCreator> creators = new ThreadLocal<PDFCreator>() {
+        @Override
+        protected PDFCreator initialValue() {
+            return new PDFCreator();
+        }
+    };
+
+    /**
+     * Create a new batch runner
+     *
+     * @param jobs number of documents that are created in parallel
+     * @param include regex of the files to include (or null)
+     * @param exclude regex of the files to exclude (or null)
+     * @throws java.util.regex.PatternSyntaxException when a regex is invalid
+     */
+    public PDFBatch(int jobs, String include, String exclude) {
+        this.jobs = jobs < 1 ? 1 : jobs;
+        this.scanner = new DirectoryScanner(include, exclude);
+    }
+
+    /**
+     * setJobLines
+     *
+     * when true, the lines are parsed as the jobs of the server (-B), with
+     * their own options, quotes and image lists. Otherwise they are the
+     * '[output] [directory] [hocr]' columns of -b.
+     *
+     * @param jobLines parse the lines as PDFJob command lines
+     */
+    public void setJobLines(boolean jobLines) {
+        this.jobLines = jobLines;
+    }
+
+    /**
+     * Reads '[output] [directory] [hocr]' lines and creates a PDF for each of
+     * them. The multi-page HOCR file is optional. See PDFJob for the lines
+     * of -B.
+     *
+     * @param reader the batch input
+     * @return true when all lines succeeded
+     * @throws IOException when the batch input can't be read
+     * @throws InterruptedException when interrupted while waiting for the workers
+     */
+    public boolean run(BufferedReader reader) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        ExecutorService listing = Executors.newFixedThreadPool(jobs);
+        // Don't read further ahead in the input than the workers can handle,
+        // the lines that are waiting for a worker are listed in the meantime
+        final Semaphore slots = new Semaphore(jobs * 2);
+
+        long start = System.nanoTime();
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.matches("\\s*") || line.matches("\\s*#.*")) {
+                    continue;
+                }
+
+                final String batchLine = line.trim();
+
+                slots.acquire();
+
+                final Future<PDFJob> parsed = listing.submit(new Callable<PDFJob>() {
+                    @Override
+                    public PDFJob call() throws IOException {
+                        return jobLines ? PDFJob.parse(batchLine, scanner) : PDFJob.parseColumns(batchLine, scanner);
+                    }
+                });
+
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(batchLine, parsed);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            listing.shutdown();
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        summary(System.nanoTime() - start);
+
+        return failures.get() == 0;
+    }
+
+    /**
+     * Creates the PDF of a line
+     *
+     * @param line the batch line
+     * @param parsed the job of the line, that is parsed and listed ahead
+     */
+    protected void process(String line, Future<PDFJob> parsed) {
+        try {
+            long start = System.nanoTime();
+            PDFJob job = parsed.get();
+            waitNanos.addAndGet(System.nanoTime() - start);
+
+            int n = job.run(creators.get());
+
+            pages.addAndGet(n);
+            documents.incrementAndGet();
+        } catch (ExecutionException ex) {
+            fail(line, ex.getCause());
+
+            //a document that was started has its own line
+            if (PDFCreator.metricsFile != null) {
+                DocumentMetrics.write(PDFCreator.metricsFile, DocumentMetrics.toJson(outputOf(line), ex.getCause()));
+            }
+        } catch (Exception ex) {
+            fail(line, ex);
+        }
+    }
+
+    private void fail(String line, Throwable ex) {
+        failures.incrementAndGet();
+        System.err.println("error: " + outputOf(line) + ": " + ex);
+    }
+
+    private String outputOf(String line) {
+        return jobLines ? PDFJob.outputOf(line) : line.split("\\s+")[0];
+    }
+
+    protected void summary(long nanos) {
+        double seconds = nanos / 1e9;
+        int docs = documents.get();
+        long pgs = pages.get();
+
+        System.err.println(String.format(
+                "batch: %d documents (%d failed), %d pages in %.1f s with %d jobs: %.2f documents/s, %.2f pages/s",
+                docs, failures.get(), pgs, seconds, jobs,
+                seconds > 0 ? docs / seconds : 0.0,
+                seconds > 0 ? pgs / seconds : 0.0));
+
+        if (PDFCreator.verbose) {
+            System.err.println(String.format("batch: %.1f s waited for lines to be listed", waitNanos.get() / 1e9));
+        }
+
+        if (PDFCreator.metricsFile != null) {
+            DocumentMetrics.write(PDFCreator.metricsFile, String.format(Locale.ROOT,
+                    "{\"batch\":true,\"documents\":%d,\"failed\":%d,\"pages\":%d,\"seconds\":%.6f,\"jobs\":%d,\"list_wait\":%.6f}",
+                    docs, failures.get(), pgs, seconds, jobs, waitNanos.get() / 1e9));
+        }
+    }
+
+    public int getDocuments() {
+        return documents.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+}
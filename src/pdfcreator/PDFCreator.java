@@ -18,10 +18,8 @@
  */
 package pdfcreator;
 
-import com.itextpdf.text.BadElementException;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.BaseFont;
@@ -29,21 +27,20 @@ import com.itextpdf.text.pdf.ICC_Profile;
 import com.itextpdf.text.pdf.PdfAConformanceLevel;
 import com.itextpdf.text.pdf.PdfAWriter;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTextArray;
 import com.itextpdf.text.pdf.PdfWriter;
 import gnu.getopt.Getopt;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
 
 /**
  *
@@ -53,6 +50,7 @@ public class PDFCreator {
     public static final int PDF_SPACE_UNIT = 72;
     public static String  profileName  = "sRGB IEC61966-2.1";
     public static String  colorProfile = "pdfcreator/sRGB.profile";
+    public static String  fontFile = "pdfcreator/courier.ttf";
     public static String  creator = "Universiteitsbibliotheek Gent";
     public static String  includeFile = null;
     public static String  excludeFile = null;
@@ -61,45 +59,336 @@ public class PDFCreator {
     public static String  pdfVersion = "1.4";
     public static boolean verbose = false;
     public static String  out = "/dev/stdout";
-    private BaseFont baseFont;
+    public static int     outputBufferSize = 1024 * 1024;
+    public static boolean atomicOutput = true;
+    public static boolean resume = false;
+    public static String  pageCacheDir = null;
+    public static long    pageCacheSize = 4096L * 1024 * 1024;
+    private static PageCache pageCache;
+    public static int     pageThreads = 1;
+    public static long    pageBufferSize = 256L * 1024 * 1024;
+    public static int     prefetchDepth = 0;
+    public static long    prefetchBudget = 256L * 1024 * 1024;
+    public static String  metricsFile = null;
+    public static boolean hocrStreaming = false;
+    public static String  hocr = null;
+    public static int     fontMetricsCacheSize = 10000;
+    public static TextLayerMode textLayer = TextLayerMode.TEXT;
+    public static HOCRBoxGranularity textRuns = HOCRBoxGranularity.LINE;
+    public static boolean probeColorProfile = false;
+    public static ImageProfile imageProfile = ImageProfile.ARCHIVAL;
+    private FontMetricsCache fontMetrics;
+    private PagePrefetcher prefetcher;
+    private DocumentMetrics metrics;
+
+    //settings of the documents of this instance, the command line options by default
+    private String conformance = pdfxConformance;
+    private String version = pdfVersion;
+    private String documentTitle = title;
+    private ImageProfile profile = imageProfile;
+
+    /**
+     * Sets the PDF/A conformance of the next documents
+     *
+     * @param conformance PDFA1A, PDFA1B, PDFA2A, PDFA2B, PDFA3A, PDFA3B or NONE
+     */
+    public void setConformance(String conformance) {
+        this.conformance = conformance;
+    }
+
+    public String getConformance() {
+        return conformance;
+    }
+
+    /**
+     * Sets the PDF version of the next documents
+     *
+     * @param version "1.4" to "1.7"
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the title of the next documents
+     *
+     * @param title the title, or null for none
+     */
+    public void setTitle(String title) {
+        this.documentTitle = title;
+    }
+
+    public String getTitle() {
+        return documentTitle;
+    }
+
+    /**
+     * Sets how the images of the next documents are embedded
+     *
+     * @param profile the image profile
+     */
+    public void setImageProfile(ImageProfile profile) {
+        this.profile = profile;
+    }
+
+    public ImageProfile getImageProfile() {
+        return profile;
+    }
+
+    protected int createPdf(String filename, String[] images) throws Exception {
+        return createPdf(filename, images, null);
+    }
+
+    /**
+     * Creates a PDF out of a list of images
+     *
+     * @param filename the output file
+     * @param images the page images
+     * @param hocrFile a multi-page HOCR file for all images, or null to look
+     *        for a HOCR file next to each image
+     * @return the number of pages
+     * @throws Exception in case of PDF creation errors
+     */
+    protected int createPdf(String filename, String[] images, File hocrFile) throws Exception {
+        List<PDFOutput> outputs = new ArrayList<PDFOutput>();
+        outputs.add(new PDFOutput(filename, conformance, version, profile));
+
+        return createPdf(outputs, images, hocrFile);
+    }
+
+    /**
+     * Creates several PDFs out of one list of images in one pass: every image
+     * is read, and every HOCR file parsed, once for all outputs. Outputs with
+     * the same image profile share the encoded images.
+     *
+     * @param outputs the output files with their conformance, version and
+     *        image profile
+     * @param images the page images
+     * @param hocrFile a multi-page HOCR file for all images, or null to look
+     *        for a HOCR file next to each image
+     * @return the number of pages
+     * @throws Exception in case of PDF creation errors
+     */
+    protected int createPdf(List<PDFOutput> outputs, String[] images, File hocrFile) throws Exception {
+        List<ImageProfile> profiles = new ArrayList<ImageProfile>();
+        int[] variants = new int[outputs.size()];
+
+        for (int o = 0 ; o < outputs.size() ; o++) {
+            PDFOutput output = outputs.get(o);
+
+            for (int k = 0 ; k < o ; k++) {
+                if (outputs.get(k).getFilename().equals(output.getFilename())) {
+                    throw new IllegalArgumentException(output + " is given twice as output");
+                }
+            }
+
+            if (! profiles.contains(output.getImageProfile())) {
+                profiles.add(output.getImageProfile());
+            }
+            variants[o] = profiles.indexOf(output.getImageProfile());
+        }
+
+        boolean done = false;
+        PageCheckpoint checkpoint = null;
+        Exception error = null;
+
+        metrics = metricsFile == null ? null : new DocumentMetrics();
+
+        try {
+            for (PDFOutput output : outputs) {
+                openOutput(output);
+            }
+
+            if (resume || pageCacheDir != null) {
+                checkpoint = openCheckpoint(outputs.get(0), hocrFile);
+            }
+
+            //the first pages are read while the HOCR file of the document is parsed
+            if (prefetchDepth > 0 && images.length > 1) {
+                prefetcher = new PagePrefetcher(this, images, hocrFile == null && textLayer != TextLayerMode.NONE,
+                        prefetchDepth, prefetchBudget);
+                prefetcher.start();
+            }
+
+            HOCRLayer layer = null;
+
+            if (hocrFile != null && textLayer != TextLayerMode.NONE) {
+                long start = metrics == null ? 0 : System.nanoTime();
+
+                layer = readHocrLayer(hocrFile, images.length);
+
+                if (metrics != null) {
+                    metrics.add(DocumentMetrics.HOCR, start);
+                    metrics.addHocrBytes(hocrFile.length());
+                }
+            }
+
+            ICC_Profile icc = null;
+
+            if (probeColorProfile) {
+                icc = probeColorProfile(images[0]);
+            }
+
+            ImageProfile[] pageProfiles = profiles.toArray(new ImageProfile[profiles.size()]);
+            PagePipeline pipeline = null;
+
+            if (pageThreads > 1 && images.length > 1) {
+                pipeline = new PagePipeline(this, images, layer, pageProfiles, checkpoint, pageThreads, pageBufferSize);
+                pipeline.start();
+            }
+
+            try {
+                for (int i = 0 ; i < images.length ; i++) {
+                    PDFPage[] pages;
+
+                    if (pipeline == null) {
+                        pages = preparePage(i, images[i], layer, pageProfiles, checkpoint);
+                    } else {
+                        long start = metrics == null ? 0 : System.nanoTime();
+
+                        pages = pipeline.take(i);
+
+                        if (metrics != null) {
+                            metrics.add(DocumentMetrics.WAIT, start);
+                        }
+                    }
+
+                    for (int o = 0 ; o < outputs.size() ; o++) {
+                        PDFOutput output = outputs.get(o);
+                        PDFPage page = pages[variants[o]];
+
+                        reportPage(output, page, outputs.size() > 1);
+
+                        //the output intent gets the profile of the first image
+                        if (i == 0) {
+                            output.icc = probeColorProfile ? icc : page.getImage().getICCProfile();
+                        }
+
+                        long start = metrics == null ? 0 : System.nanoTime();
+
+                        writePage(output.doc, output.writer, page);
+
+                        if (metrics != null) {
+                            metrics.add(DocumentMetrics.WRITE, start);
+                        }
+                    }
+
+                    //the outputs share the one page with a cached raster
+                    if (checkpoint != null) {
+                        for (PDFPage page : pages) {
+                            if (page.getRasterData() != null) {
+                                checkpoint.releaseRasterData(page.getRasterData());
+                                break;
+                            }
+                        }
+                    }
+
+                    if (metrics != null) {
+                        metrics.sampleHeap();
+                    }
+                }
+            } finally {
+                if (pipeline != null) {
+                    pipeline.close();
+                }
+            }
+
+            if (prefetcher != null) {
+                verbose(outputs.get(0) + ": " + prefetcher);
+            }
+
+            for (PDFOutput output : outputs) {
+                closeOutput(output, images);
+            }
+
+            if (checkpoint != null) {
+                checkpoint.finish(images.length);
+                verbose(outputs.get(0) + ": " + checkpoint.getRestored() + " page(s) prepared before, "
+                        + checkpoint.getSaved() + " prepared");
+
+                if (pageCacheDir != null) {
+                    verbose(getPageCache().toString());
+                }
+            }
+
+            done = true;
+        } catch (Exception ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+                prefetcher = null;
+            }
+
+            //a failed document leaves no partial files, but its checkpoint
+            if (! done) {
+                for (PDFOutput output : outputs) {
+                    output.abort();
+                }
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+            }
+
+            if (metrics != null) {
+                DocumentMetrics.write(metricsFile, metrics.toJson(outputs, images.length, error));
+                metrics = null;
+            }
+        }
+
+        if (fontMetrics != null) {
+            verbose(fontMetrics.toString());
+        }
+
+        return images.length;
+    }
 
     @SuppressWarnings("static-access")
-    protected void createPdf(String filename, String[] images) throws Exception {
+    protected void openOutput(PDFOutput output) throws Exception {
         Document doc = new Document();
         PdfWriter writer;
+        String filename = output.getFilename();
+        String conformance = output.getConformance();
+        String version = output.getVersion();
+        OutputStream os = output.open(outputBufferSize, atomicOutput);
         
-        if (pdfxConformance.equals("PDFA1A")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_1A);
+        if (conformance.equals("PDFA1A")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_1A);
         }
-        else if (pdfxConformance.equals("PDFA1B")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_1B);
+        else if (conformance.equals("PDFA1B")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_1B);
         }
-        else if (pdfxConformance.equals("PDFA2A")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_2A);
+        else if (conformance.equals("PDFA2A")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_2A);
         }
-        else if (pdfxConformance.equals("PDFA2B")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_2B);
+        else if (conformance.equals("PDFA2B")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_2B);
         }
-        else if (pdfxConformance.equals("PDFA3A")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_3A);
+        else if (conformance.equals("PDFA3A")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_3A);
         }
-        else if (pdfxConformance.equals("PDFA3B")) {
-            writer = PdfAWriter.getInstance(doc, new FileOutputStream(filename), PdfAConformanceLevel.PDF_A_3B);
+        else if (conformance.equals("PDFA3B")) {
+            writer = PdfAWriter.getInstance(doc, os, PdfAConformanceLevel.PDF_A_3B);
         }
         else {
-            writer = PdfWriter.getInstance(doc, new FileOutputStream(filename));
+            writer = PdfWriter.getInstance(doc, os);
         }
        
-        if (pdfVersion.equals("1.4")) {
+        if (version.equals("1.4")) {
             writer.setPdfVersion(PdfWriter.VERSION_1_4);
         }
-        else if (pdfVersion.equals("1.5")) {
+        else if (version.equals("1.5")) {
             writer.setPdfVersion(PdfWriter.VERSION_1_5);
         }
-        else if (pdfVersion.equals("1.6")) {
+        else if (version.equals("1.6")) {
             writer.setPdfVersion(PdfWriter.VERSION_1_6);
         }
-        else if (pdfVersion.equals("1.7")) {
+        else if (version.equals("1.7")) {
             writer.setPdfVersion(PdfWriter.VERSION_1_7);
         }
         else {
@@ -111,64 +400,319 @@ public class PDFCreator {
         doc.addCreationDate();
         doc.addCreator(creator);
 
-        if (title != null) {
-            doc.addTitle(title);
+        if (documentTitle != null) {
+            doc.addTitle(documentTitle);
         }
 
-        for (int i = 0 ; i < images.length ; i++) {
-            verbose(" +" + images[i]);
+        output.doc = doc;
+        output.writer = writer;
+    }
 
-            Image img = Image.getInstance(images[i]);     
-            
-            doc.setPageSize(new Rectangle(img.getWidth(), img.getHeight()));
-            doc.setMargins(0, 0, 0, 0);
-            
-            if (doc.isOpen()) {
-                doc.newPage();
-            } else {
-                doc.open();
-            }
+    protected PageCheckpoint openCheckpoint(PDFOutput output, File hocrFile) throws IOException {
+        PageCache cache = pageCacheDir == null ? null : getPageCache();
+        File file = resume ? new File(output.getFilename()) : null;
+
+        if (resume && (output.getFilename().equals("-") || output.getFilename().equals("/dev/stdout"))) {
+            System.err.println("warning: no checkpoint for the standard output");
+            file = null;
+        }
+
+        if (file == null && cache == null) {
+            return null;
+        }
+
+        PageCheckpoint checkpoint = PageCheckpoint.open(file, hocrFile, cache);
+
+        if (checkpoint.getDirectory() != null) {
+            verbose(output + ": checkpoint " + checkpoint.getDirectory());
+        }
+
+        return checkpoint;
+    }
 
-            //itext: image needs absolute positioning
-            img.setAbsolutePosition(0, 0);
-            // Put the image in front of the text (reverse for debugging)
-            writer.getDirectContent().addImage(img);
+    /**
+     * Returns the page cache of -C, it is shared by all documents of the
+     * process
+     *
+     * @return the page cache
+     * @throws IOException when the cache directory can't be created
+     */
+    protected static synchronized PageCache getPageCache() throws IOException {
+        if (pageCache == null) {
+            pageCache = new PageCache(new File(pageCacheDir), pageCacheSize);
+        }
+        return pageCache;
+    }
+
+    private void reportPage(PDFOutput output, PDFPage page, boolean named) {
+        String image = page.getFilename();
+        String suffix = named ? " (" + output + ")" : "";
+
+        if (page.isEncoded()) {
+            long source = new File(image).length();
+
+            output.encoded++;
+            output.sourceBytes += source;
+            output.encodedBytes += page.getImageSize();
+            output.encodeNanos += page.getEncodeNanos();
 
-            File hocrFile = findHocrFileFor(new File(images[i]));
-            if(hocrFile != null){
-                verbose("Found hocrFile: "+hocrFile.getAbsolutePath());
-                //Put the text behind the image (still selectable!)
-                writeTextBoxes(writer.getDirectContentUnder(), img, hocrFile);
+            verbose(String.format(" +%s %s %s %d -> %d bytes in %.0f ms%s", image, output.getImageProfile().getName(),
+                    page.getFilter(), source, page.getImageSize(), page.getEncodeNanos() / 1e6, suffix));
+        }
+        else {
+            if (page.isPassthrough()) {
+                output.passthrough++;
             }
 
-            doc.newPage();
+            verbose(" +" + image + " " + (page.isPassthrough() ? "passthrough " : page.getRaster() != null ? "streamed " : "transcoded ")
+                    + page.getFilter() + " " + page.getImageSize() + " bytes" + suffix);
         }
+    }
 
-        ICC_Profile icc = getImageColorProfile(images[0]);
+    protected void closeOutput(PDFOutput output, String[] images) throws IOException {
+        String filename = output.getFilename();
+        ICC_Profile icc = output.icc;
 
         if (icc == null) {
             System.err.println("warning: no color profile available in " + images[0] + " using " + profileName);
             icc = getDefaultColorProfile();
         }
 
-        writer.setOutputIntents("Custom", "", null, null, icc);
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        output.writer.setOutputIntents("Custom", "", null, null, icc);
+
+        output.writer.createXmpMetadata();
+
+        if (metrics != null) {
+            metrics.add(DocumentMetrics.FINISH, start);
+            start = System.nanoTime();
+        }
+
+        output.doc.close();
+
+        output.commit();
+
+        if (metrics != null) {
+            metrics.add(DocumentMetrics.CLOSE, start);
+            metrics.sampleHeap();
+        }
+
+        double seconds = output.getElapsedNanos() / 1e9;
+
+        verbose(String.format("%s: %d bytes in %.1f s, %.1f MB/s", filename, output.getBytes(), seconds,
+                output.getBytes() / seconds / 1e6));
+
+        verbose(filename + ": close, " + output.passthrough + " page(s) passed through, "
+                + (images.length - output.passthrough - output.encoded) + " transcoded, " + output.encoded + " encoded by the profile");
+
+        if (output.encoded > 0) {
+            verbose(String.format("%s: profile %s, %d -> %d bytes (%.1f%%), %.1f s encoding",
+                    filename, output.getImageProfile(), output.sourceBytes, output.encodedBytes,
+                    100.0 * output.encodedBytes / output.sourceBytes, output.encodeNanos / 1e9));
+        }
+    }
+
+    /**
+     * Decodes the image of a page and lays out its OCR text, once for all
+     * the image profiles. This is called from the page worker threads when
+     * the pages are prepared in parallel.
+     *
+     * @param index the page index
+     * @param filename the page image
+     * @param layer the OCR of the whole document, or null to look for a
+     *        HOCR file next to the image
+     * @param profiles the image profiles of the outputs
+     * @param checkpoint the prepared pages of an earlier run, or null
+     * @return the prepared page for every profile, the pages share the text
+     *         and the ones that keep the image are the same
+     * @throws Exception when the image or the HOCR can't be read
+     */
+    protected PDFPage[] preparePage(int index, String filename, HOCRLayer layer, ImageProfile[] profiles,
+            PageCheckpoint checkpoint) throws Exception {
+        PDFPage[] pages = null;
+        List<PDFTextRun> text = null;
+        boolean textDone = false;
+        String imageHash = null;
+        String imageKey = null;
+        String textKey = null;
+
+        if (prefetcher != null) {
+            prefetcher.await(index);
+        }
+
+        if (checkpoint != null) {
+            long start = metrics == null ? 0 : System.nanoTime();
+
+            imageHash = checkpoint.fileHash(new File(filename));
+            File hocrFile = layer == null && textLayer != TextLayerMode.NONE ? findHocrFileFor(new File(filename)) : null;
+
+            imageKey = checkpoint.imageKey(imageHash, profiles);
+            textKey = checkpoint.textKey(imageHash, hocrFile, index);
+
+            try {
+                File file = checkpoint.findText(index, textKey);
+
+                if (file != null) {
+                    text = PageCheckpoint.readText(file);
+                    textDone = true;
+                }
+
+                file = checkpoint.findImages(index, imageKey);
+
+                if (file != null) {
+                    pages = PageCheckpoint.readPages(file, index, filename, text);
+                }
+            } catch (IOException ex) {
+                //e.g. removed from the cache by another process
+                System.err.println("warning: prepared page " + filename + " can't be read, it is prepared again: " + ex);
+                text = null;
+                textDone = false;
+                pages = null;
+            }
+
+            if (metrics != null) {
+                metrics.add(DocumentMetrics.RESTORE, start);
+            }
+
+            if (textDone && pages != null && ! Arrays.asList(pages).contains(null)) {
+                checkpoint.restored();
+                return pages;
+            }
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        TiffRaster raster = TiffRaster.open(filename);
+        Image img = raster == null ? Image.getInstance(filename) : raster.getImage();
+
+        if (metrics != null) {
+            metrics.add(DocumentMetrics.IMAGE, start);
+            metrics.addImageBytes(new File(filename).length());
+        }
+
+        if (textLayer != TextLayerMode.NONE && ! textDone) {
+            if (layer != null) {
+                text = layoutTextBoxes(img, layer, index);
+            }
+            else {
+                File hocrFile = findHocrFileFor(new File(filename));
+                if(hocrFile != null){
+                    verbose("Found hocrFile: "+hocrFile.getAbsolutePath());
+                    text = layoutTextBoxes(img, hocrFile);
+                }
+            }
+        }
+
+        boolean restored = pages != null;
+
+        if (restored && ! textDone) {
+            //the images of the checkpoint with the new text
+            for (int k = 0 ; k < pages.length ; k++) {
+                if (pages[k] != null) {
+                    PDFPage page = new PDFPage(index, filename, pages[k].getImage(), text);
+                    page.setEncodeNanos(pages[k].getEncodeNanos());
+                    pages[k] = page;
+                }
+            }
+        }
+
+        if (! restored) {
+            pages = new PDFPage[profiles.length];
+
+            //the text is laid out on the original image, a downsampled image is scaled to its size
+            for (int k = 0 ; k < profiles.length ; k++) {
+                start = System.nanoTime();
+                Image encoded = profiles[k].apply(filename, img, raster);
+
+                if (encoded != null) {
+                    pages[k] = new PDFPage(index, filename, encoded, text);
+                    pages[k].setEncodeNanos(System.nanoTime() - start);
+
+                    if (metrics != null) {
+                        metrics.addNanos(DocumentMetrics.ENCODE, pages[k].getEncodeNanos());
+                    }
+                }
+            }
+        }
+
+        PDFPage kept = null;
+
+        for (int k = 0 ; k < profiles.length ; k++) {
+            if (pages[k] != null) {
+                continue;
+            }
+
+            if (kept == null) {
+                if (raster != null && raster.isBitonal()) {
+                    img = raster.encodeG4();
+                    raster = null;
+                }
+                kept = new PDFPage(index, filename, img, raster, text);
+
+                if (raster != null && checkpoint != null) {
+                    kept.setRasterData(checkpoint.getRasterData(imageHash, raster));
+                }
+            }
+
+            pages[k] = kept;
+        }
+
+        if (checkpoint != null) {
+            //only the images that are taken from the file were prepared
+            if (restored && textDone) {
+                checkpoint.restored();
+            } else {
+                checkpoint.save(index, imageKey, textKey, pages);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.sampleHeap();
+        }
+
+        return pages;
+    }
+
+    protected void writePage(Document doc, PdfWriter writer, PDFPage page) throws DocumentException, IOException {
+        Image img = page.getImage();
+
+        doc.setPageSize(new Rectangle(img.getScaledWidth(), img.getScaledHeight()));
+        doc.setMargins(0, 0, 0, 0);
+
+        if (doc.isOpen()) {
+            doc.newPage();
+        } else {
+            doc.open();
+        }
+
+        //the raster of a large TIFF goes straight from the file to the output
+        if (page.getRaster() != null) {
+            img.setDirectReference(page.getRaster().write(writer, page.getRasterData()));
+        }
 
-        writer.createXmpMetadata();
+        //itext: image needs absolute positioning
+        img.setAbsolutePosition(0, 0);
+        // Put the image in front of the text (reverse for debugging)
+        writer.getDirectContent().addImage(img);
 
-        doc.close();
+        if(page.getText() != null){
+            //Put the text behind the image (still selectable!)
+            writeTextBoxes(writer.getDirectContentUnder(), page.getText());
+        }
 
-        verbose(filename + ": close");
+        doc.newPage();
     }
 
     private BaseFont getBaseFont() throws DocumentException, IOException {
-        if(baseFont == null){
-            /*
-                type 1 fonts are NOT embedded, despite the flag BaseFont.EMBEDDED
-                so we'll have to force it by supplying the ttf file
-            */
-            baseFont = FontFactory.getFont("pdfcreator/courier.ttf", BaseFont.WINANSI, BaseFont.EMBEDDED).getBaseFont();
+        return PDFResources.getFont(fontFile);
+    }
+
+    private synchronized FontMetricsCache getFontMetrics() throws DocumentException, IOException {
+        if(fontMetrics == null){
+            fontMetrics = new FontMetricsCache(getBaseFont(), fontMetricsCacheSize);
         }
-        return baseFont;
+        return fontMetrics;
     }
 
     protected File findHocrFileFor(File file){
@@ -181,20 +725,91 @@ public class PDFCreator {
         return hocrFile.exists() ? hocrFile : null;
     }
 
-    protected void writeTextBoxes(PdfContentByte cb,Image image,File hocrFile) throws DocumentException, IOException{
+    protected List<PDFTextRun> layoutTextBoxes(Image image,File hocrFile) throws DocumentException, IOException{
+
+        long start = metrics == null ? 0 : System.nanoTime();
 
         HOCRReader reader = new HOCRReader(hocrFile,HOCRBoxGranularity.WORD);
+        reader.setStreaming(hocrStreaming);
+
+        HOCRLayer layer;
+
+        try {
+            //only the first page of the HOCR file is used
+            layer = HOCRLayer.read(reader, 1);
+        } finally {
+            reader.close();
+        }
+
+        if (metrics != null) {
+            metrics.add(DocumentMetrics.HOCR, start);
+            metrics.addHocrBytes(hocrFile.length());
+        }
+
+        return layoutTextBoxes(image, layer, 0);
+    }
+
+    /**
+     * Reads a multi-page HOCR file once. The ocr_page elements are matched
+     * with the images in order.
+     *
+     * @param hocrFile the HOCR file
+     * @param images the number of images
+     * @return the OCR boxes of all pages
+     * @throws IOException when the HOCR file can't be read
+     */
+    protected HOCRLayer readHocrLayer(File hocrFile, int images) throws IOException {
+        verbose("Reading hocrFile: "+hocrFile.getAbsolutePath());
+
+        HOCRReader reader = new HOCRReader(hocrFile,HOCRBoxGranularity.WORD);
+        reader.setStreaming(hocrStreaming);
+
+        HOCRLayer layer;
+
+        try {
+            layer = HOCRLayer.read(reader, images);
+        } finally {
+            reader.close();
+        }
+
+        if (layer.getHocrPageCount() < images) {
+            System.err.println("warning: " + hocrFile + " has text for " + layer.getHocrPageCount() + " of " + images + " pages");
+        }
+
+        return layer;
+    }
+
+    /**
+     * Lays out the OCR boxes of one page of a HOCRLayer
+     *
+     * @param image the page image
+     * @param layer the OCR boxes
+     * @param page the page in the layer
+     * @return the text runs of the page
+     * @throws DocumentException when the font can't be loaded
+     * @throws IOException when the font can't be loaded
+     */
+    protected List<PDFTextRun> layoutTextBoxes(Image image,HOCRLayer layer,int page) throws DocumentException, IOException{
+
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        List<PDFTextRun> runs = new ArrayList<PDFTextRun>();
 
         int hocrPageWidth = -1;
         float scaleWidth = 1.0f;
         int hocrPageHeight = -1;
         float scaleHeight = 1.0f;
 
-        for(HOCRBox hocrBox:reader){
+        HOCRBox hocrBox = new HOCRBox();
+        int [] bottomCoords = new int[4];
+        FontMetricsCache metricsCache = getFontMetrics();
 
-            if(hocrBox.getPage() > 0){
-                break;
-            }
+        int end = layer.getPageEnd(page);
+        int row = layer.getPageStart(page);
+
+        while(row < end){
+
+            layer.get(row, hocrBox);
 
             if(hocrPageWidth == -1){
                 hocrPageWidth = hocrBox.getPageWidth();
@@ -210,91 +825,258 @@ public class PDFCreator {
                     verbose("imageHeight / hocrPageHeight is not 1.0, but "+scaleHeight+". Coordinates will be rescaled");
             }
 
+            //all the words of a line in one run
+            int line = layer.getLine(row);
+            if(textRuns == HOCRBoxGranularity.LINE && line >= 0){
+                int lineEnd = row + 1;
+                while(lineEnd < end && layer.getLine(lineEnd) == line){
+                    lineEnd++;
+                }
+                //the same origin as HOCRBox.getBottomCoordinates
+                int pageBottom = hocrBox.getPageCoordinates()[3];
+                runs.add(layoutLine(layer, line, row, lineEnd, pageBottom, scaleWidth, scaleHeight, metricsCache));
+                row = lineEnd;
+                continue;
+            }
+
             //pdf has its origin in bottom-left-corner, hocr in top-left-corner
-            int [] bottomCoords = hocrBox.getBottomCoordinates();
+            hocrBox.getBottomCoordinates(bottomCoords);
             float llx = (float)bottomCoords[0] * scaleWidth;
             float lly = (float)bottomCoords[1] * scaleHeight;
             float urx = (float)bottomCoords[2] * scaleWidth;
             float ury = (float)bottomCoords[3] * scaleHeight;
 
-            Rectangle rec = new Rectangle(llx,lly,urx,ury);
-
             float bboxWidth = urx - llx;
-            float bboxHeight = lly - ury;
-            rec.setBorder(Rectangle.BOX);
-
-            cb.rectangle(rec);
-            cb.stroke();
-
-            BaseFont bf = getBaseFont();
 
             /*
                 cf. https://developers.itextpdf.com/question/how-choose-optimal-size-font
             */
-            float glyphWidth = bf.getWidth(hocrBox.getText());
+            String text = hocrBox.getText();
+            int [] wordMetrics = metricsCache.get(text);
+            float glyphWidth = wordMetrics[FontMetricsCache.WIDTH];
             float textWidth = glyphWidth * 0.001f * 16f;
             //scale textWidth to fill box
             textWidth *= bboxWidth / textWidth;
             float fontSize = 1000 * textWidth / glyphWidth;
 
             //height above base line
-            float ascent = bf.getAscentPoint(hocrBox.getText(), fontSize);
+            float ascent = wordMetrics[FontMetricsCache.ASCENT] * 0.001f * fontSize;
             //height below base line
-            float descent = bf.getDescentPoint(hocrBox.getText(), fontSize);
+            float descent = wordMetrics[FontMetricsCache.DESCENT] * 0.001f * fontSize;
             float textHeight = ascent + descent;
 
-            // Put the text into the PDF
-            cb.setFontAndSize(bf, fontSize);
-            cb.beginText();
-            // Comment the next line to debug the PDF output (visible Text)
-            cb.setTextRenderingMode(PdfContentByte.TEXT_RENDER_MODE_INVISIBLE);
-
             /*
                 moveText(x,y) (origin: left bottom)
             */
             //cb.moveText(llx,lly) puts text at the bottom..
-            cb.moveText(llx,lly + ((ury - lly - textHeight) / 2.0f));
-            cb.showText(hocrBox.getText());
-            cb.endText();
+            runs.add(new PDFTextRun(llx, lly, urx, ury, fontSize,
+                    llx, lly + ((ury - lly - textHeight) / 2.0f), text));
+            row++;
         }
 
+        if (metrics != null) {
+            metrics.add(DocumentMetrics.LAYOUT, start);
+        }
+
+        return runs;
     }
 
-    protected ICC_Profile getImageColorProfile(String filename) {
-        try {
-            Image img = Image.getInstance(filename);
-            ICC_Profile icc = img.getICCProfile();
-            return icc;
-        } catch (BadElementException ex) {
-            Logger.getLogger(PDFCreator.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (MalformedURLException ex) {
-            Logger.getLogger(PDFCreator.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(PDFCreator.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Lays out the words of one line as a single run. The font size fills
+     * the height of the line. Every word gets the horizontal scaling that
+     * fits it in its box, and a TJ adjustment that moves it to the start of
+     * its box.
+     *
+     * @param layer the OCR boxes
+     * @param line the line in the layer
+     * @param start the first row of the line
+     * @param end the row after the last row of the line
+     * @param pageBottom the bottom of the HOCR page (y2 of its bbox), the
+     *        origin of the PDF coordinates
+     * @param scaleWidth image width / HOCR page width
+     * @param scaleHeight image height / HOCR page height
+     * @param metricsCache the metrics of the words
+     * @return the text run of the line
+     */
+    protected PDFTextRun layoutLine(HOCRLayer layer,int line,int start,int end,int pageBottom,
+            float scaleWidth,float scaleHeight,FontMetricsCache metricsCache){
+
+        BaseFont bf = metricsCache.getFont();
+
+        //pdf has its origin in bottom-left-corner, hocr in top-left-corner
+        float llx = layer.getLineX1(line) * scaleWidth;
+        float lly = (pageBottom - layer.getLineY2(line)) * scaleHeight;
+        float urx = layer.getLineX2(line) * scaleWidth;
+        float ury = (pageBottom - layer.getLineY1(line)) * scaleHeight;
+
+        //the font's ascender to descender fills the line
+        float fontAscent = bf.getFontDescriptor(BaseFont.ASCENT, 1000);
+        float fontDescent = bf.getFontDescriptor(BaseFont.DESCENT, 1000);
+        float fontSize = 1000 * (ury - lly) / (fontAscent - fontDescent);
+
+        float x = layer.getX1(start) * scaleWidth;
+
+        //baseline, or the bottom of the line when unknown
+        float slope = 0;
+        float y = lly - fontDescent * 0.001f * fontSize;
+        if(layer.hasLineBaseline(line)){
+            float hocrSlope = layer.getLineBaselineSlope(line);
+            float hocrY = layer.getLineY2(line) + layer.getLineBaselineOffset(line)
+                    + hocrSlope * (layer.getX1(start) - layer.getLineX1(line));
+            y = (pageBottom - hocrY) * scaleHeight;
+            slope = -hocrSlope * scaleHeight / scaleWidth;
         }
 
-        return null;
+        //distances along a sloped baseline are a bit longer
+        float stretch = (float) Math.sqrt(1 + slope * slope);
+
+        int words = end - start;
+        String [] texts = new String[words];
+        float [] scalings = new float[words];
+        float [] adjustments = new float[words];
+        float [] widths = new float[words];
+        float scaling = 100;
+
+        for(int i = 0; i < words; i++){
+            int row = start + i;
+            texts[i] = layer.getText(row);
+            widths[i] = metricsCache.get(texts[i])[FontMetricsCache.WIDTH];
+            float wordWidth = (layer.getX2(row) - layer.getX1(row)) * scaleWidth * stretch;
+            float glyphWidth = widths[i] * 0.001f * fontSize;
+
+            //keep the scaling of the previous word when the difference is less than half a point
+            if(glyphWidth > 0 && Math.abs(wordWidth - glyphWidth * scaling / 100) >= 0.5f){
+                scaling = Math.round(1000 * wordWidth / glyphWidth) / 10f;
+            }
+            scalings[i] = scaling;
+        }
+
+        /*
+            a space between the words keeps them apart when the text is
+            extracted. It goes with the narrowest of the two words, so it
+            doesn't run far into the other word.
+        */
+        float spaceWidth = bf.getWidth(' ');
+        //position of the text on the baseline, relative to x
+        float position = 0;
+
+        for(int i = 0; i < words; i++){
+            int row = start + i;
+            float unit = 0.001f * fontSize * scalings[i] / 100;
+            boolean leading = i > 0 && scalings[i] <= scalings[i - 1];
+            boolean trailing = i < words - 1 && scalings[i] < scalings[i + 1];
+            float wordStart = (layer.getX1(row) * scaleWidth - x) * stretch;
+
+            texts[i] = (leading ? " " : "") + texts[i] + (trailing ? " " : "");
+            adjustments[i] = Math.round((position - wordStart) / unit + (leading ? spaceWidth : 0));
+            position += ((leading ? spaceWidth : 0) + widths[i] + (trailing ? spaceWidth : 0) - adjustments[i]) * unit;
+        }
+
+        return new PDFTextRun(llx, lly, urx, ury, fontSize, slope, x, y, texts, scalings, adjustments);
     }
 
-    protected ICC_Profile getDefaultColorProfile() throws IOException {
-        InputStream in = this.getClass().getClassLoader().getResourceAsStream(colorProfile);
+    protected void writeTextBoxes(PdfContentByte cb,List<PDFTextRun> runs) throws DocumentException, IOException{
+
+        BaseFont bf = getBaseFont();
+        float scaling = 100;
+
+        for(PDFTextRun run:runs){
+
+            if(textLayer == TextLayerMode.DEBUG){
+                //rectangle(Rectangle) draws nothing without a border width
+                cb.rectangle(run.getLlx(),run.getLly(),run.getUrx() - run.getLlx(),run.getUry() - run.getLly());
+                cb.stroke();
+            }
 
-        if (in == null) {
-            throw new IOException("No " + colorProfile + " found");
+            // Put the text into the PDF
+            cb.setFontAndSize(bf, run.getFontSize());
+            cb.beginText();
+            // Comment the next line to debug the PDF output (visible Text)
+            cb.setTextRenderingMode(PdfContentByte.TEXT_RENDER_MODE_INVISIBLE);
+            if(run.getSlope() == 0){
+                cb.moveText(run.getX(),run.getY());
+            } else {
+                float cos = (float) (1 / Math.sqrt(1 + run.getSlope() * run.getSlope()));
+                float sin = run.getSlope() * cos;
+                cb.setTextMatrix(cos, sin, -sin, cos, run.getX(), run.getY());
+            }
+            scaling = showTexts(cb, run, scaling);
+            cb.endText();
         }
-        
-        ByteArrayOutputStream bas = new ByteArrayOutputStream();
 
-        byte[] buffer = new byte[1024];
-        int n = 0;
-        
-        while ((n = in.read(buffer)) != -1 ) {
-            bas.write(buffer, 0, n);
+    }
+
+    /*
+        shows the texts of a run with one TJ per horizontal scaling. The
+        scaling is kept after endText, so it's only set when it changes.
+    */
+    private float showTexts(PdfContentByte cb,PDFTextRun run,float scaling){
+
+        String [] texts = run.getTexts();
+        float [] scalings = run.getScalings();
+        float [] adjustments = run.getAdjustments();
+        int i = 0;
+
+        while(i < texts.length){
+            if(scalings[i] != scaling){
+                scaling = scalings[i];
+                cb.setHorizontalScaling(scaling);
+            }
+
+            int j = i + 1;
+            while(j < texts.length && scalings[j] == scaling){
+                j++;
+            }
+
+            if(j == i + 1 && adjustments[i] == 0){
+                cb.showText(texts[i]);
+            } else {
+                PdfTextArray array = new PdfTextArray();
+                for(int k = i; k < j; k++){
+                    if(adjustments[k] != 0){
+                        array.add(adjustments[k]);
+                    }
+                    array.add(texts[k]);
+                }
+                cb.showText(array);
+            }
+
+            i = j;
         }
 
-        in.close();
+        return scaling;
+    }
 
-        return ICC_Profile.getInstance(bas.toByteArray());
+    /**
+     * Reads the ICC profile of an image out of its header, without decoding
+     * the image.
+     *
+     * @param filename the image
+     * @return the profile, or null when the image has none
+     */
+    protected ICC_Profile probeColorProfile(String filename) {
+        try {
+            byte[] data = ColorProfileProbe.probe(new File(filename));
+            return data == null ? null : ICC_Profile.getInstance(data);
+        } catch (IOException ex) {
+            Logger.getLogger(PDFCreator.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (IllegalArgumentException ex) {
+            //not a profile iText can use
+            Logger.getLogger(PDFCreator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the default profile (sRGB). It is read once and shared by all
+     * documents.
+     *
+     * @return the default profile
+     * @throws IOException when the profile can't be read
+     */
+    protected ICC_Profile getDefaultColorProfile() throws IOException {
+        return PDFResources.getColorProfile(colorProfile);
     }
 
     protected void verbose(String msg) {
@@ -303,18 +1085,53 @@ public class PDFCreator {
         }
     }
 
+    /**
+     * Returns the conformance for the argument of the -a option
+     *
+     * @param level 1A, 1B, 2A, 2B, 3A, 3B or NONE
+     * @return PDFA1A, PDFA1B, PDFA2A, PDFA2B, PDFA3A, PDFA3B or NONE
+     */
+    protected static String parseConformance(String level) {
+        if ("1A".equals(level)) {
+            return "PDFA1A";
+        }
+        else if ("1B".equals(level)) {
+            return "PDFA1B";
+        }
+        else if ("2A".equals(level)) {
+            return "PDFA2A";
+        }
+        else if ("2B".equals(level)) {
+            return "PDFA2B";
+        }
+        else if ("3A".equals(level)) {
+            return "PDFA3A";
+        }
+        else if ("3B".equals(level)) {
+            return "PDFA3B";
+        }
+        else {
+            return "NONE";
+        }
+    }
+
     protected static void usage() {
         System.err.println("usage:");
         System.err.println();
         System.err.println(" PDFCreator [options] file [file...]");
-        System.err.println(" PDFCreator [options] -b < input");
+        System.err.println(" PDFCreator [options] -b|-B < input");
+        System.err.println(" PDFCreator [options] -d port|spool directory");
         System.err.println();
         System.err.println("where input like:");
         System.err.println();
-        System.err.println("[output file] [image directory]");
-        System.err.println("[output file] [image directory]");
+        System.err.println("[output file] [image directory] [hocr file]");
+        System.err.println("[output file] [image directory] [hocr file]");
         System.err.println("...");
         System.err.println();
+        System.err.println("The [hocr file] is optional, see -H. With -B a line can start");
+        System.err.println("with its own -a, -t, -x, -p, -O or -H options and list images");
+        System.err.println("instead of a directory.");
+        System.err.println();
         System.err.println("Each `file' needs to be a JPEG,JPEG2000 or TIF image.");
         System.err.println("When the image directory contains an .html file matching");
         System.err.println("the name of the image, then this will be interpreted as");
@@ -330,38 +1147,46 @@ public class PDFCreator {
         System.err.println("  -v            - verbose\n" +
                            "  -a 1A|1B|2A|2B|3A|3B|NONE - PDF/A compliance\n" +
                            "  -b            - batchmode\n" +
-                           "  -i regex      - include files [batchmode]\n" +
-                           "  -e regex      - exclude files [batchmode]\n" +
-                           "  -o file       - output file\n" +
+                           "  -B            - batchmode, every line with its own options (see PDFJob)\n" +
+                           "  -c decode|header - take the color profile from the decoded first image\n" +
+                           "                  (default) or read it from the image header only\n" +
+                           "  -C dir        - cache of prepared pages, shared by all documents and runs\n" +
+                           "  -d port|dir   - server: take batch lines from a port on localhost or\n" +
+                           "                  from the .job files of a spool directory\n" +
+                           "  -G megabytes  - size of the -C cache (default 4096)\n" +
+                           "  -H file       - one multi-page HOCR file for all images\n" +
+                           "  -i regex      - include files [batchmode, server]\n" +
+                           "  -e regex      - exclude files [batchmode, server]\n" +
+                           "  -f file       - TrueType font of the text layer\n" +
+                           "  -j jobs       - number of documents created in parallel [batchmode, server]\n" +
+                           "  -k kilobytes  - output buffer (default 1024)\n" +
+                           "  -l none|text|debug - text layer: none, invisible text (default) or\n" +
+                           "                  invisible text and the OCR boxes\n" +
+                           "  -m megabytes  - memory ceiling of the prepared pages buffer\n" +
+                           "  -M file       - append a JSON line with the timings of every document\n" +
+                           "                  (\"-\": standard error)\n" +
+                           "  -n            - write the output in place instead of as a .part file\n" +
+                           "                  that is renamed when it is complete\n" +
+                           "  -o file       - output file (\"-\" or /dev/stdout: standard output)\n" +
+                           "  -O file[,a=LEVEL][,x=VERSION][,p=PROFILE] - another output created in the\n" +
+                           "                  same pass, with its own settings (repeatable)\n" +
+                           "  -p profile    - images: archival (default), access (150 dpi JPEG q70),\n" +
+                           "                  bitonal-g4, jpeg:DPI:QUALITY, g4:DPI or flate:DPI\n" +
+                           "  -r word|line  - one text object per line (default) or per word\n" +
+                           "  -R            - keep the prepared pages in .[output].pages and take the\n" +
+                           "                  unchanged ones from there on the next run\n" +
+                           "  -s            - stream the HOCR files instead of parsing them into a DOM\n" +
                            "  -t title      - title of the document\n" + 
-                           "  -x version    - PDF verson (\"1.4\" -> \"1.7\")\n");
+                           "  -w threads    - number of threads preparing pages\n" +
+                           "  -x version    - PDF verson (\"1.4\" -> \"1.7\")\n" +
+                           "  -y pages      - read the images and HOCR files of the next pages ahead\n" +
+                           "                  (default 0: off)\n" +
+                           "  -z megabytes  - read ahead at most this much (default 256)\n");
         System.exit(1);
     }
 
-    protected static String[] scanDirectory(String filename, String include, String exclude) {
-        List images = new ArrayList();
-
-        File f = new File(filename);
-        File[] list = f.listFiles();
-
-        for (int i = 0 ; i < list.length ; i++) {
-            
-            if (include != null && ! list[i].getName().matches(include)) {
-                continue;
-            }
-            
-            if (exclude != null && list[i].getName().matches(exclude)) {
-                continue;
-            }
-
-            if (list[i].isFile() && ! list[i].isHidden()) {
-                images.add(list[i].getAbsolutePath());
-            }
-        }
-
-        Collections.sort(images);
-        
-        return (String []) images.toArray(new String[] {});
+    protected static String[] scanDirectory(String filename, String include, String exclude) throws IOException {
+        return new DirectoryScanner(include, exclude).scan(filename);
     }
 
     /**
@@ -370,80 +1195,218 @@ public class PDFCreator {
      */
     public static void main(String[] args) throws Exception {
         boolean batch = false;
+        boolean jobLines = false;
+        String daemon = null;
+        int jobs = 1;
+        List<String> extra = new ArrayList<String>();
 
-        Getopt g = new Getopt("PDFCreator", args, "a:bc:e:i:o:p:r:t:vx:");
+        Getopt g = new Getopt("PDFCreator", args, "a:bBc:C:d:e:f:G:H:i:j:k:l:m:M:no:O:p:r:Rst:vw:x:y:z:");
            
         int c;
         String arg;
         while ((c = g.getopt()) != -1) {
              switch(c) {
                  case 'a':
-                    if ("1A".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA1A";
-                    }
-                    else if ("1B".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA1B";
-                    }
-                    else if ("2A".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA2A";
-                    }
-                    else if ("2B".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA2B";
-                    }
-                    else if ("3A".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA3A";
+                    pdfxConformance = parseConformance(g.getOptarg());
+                    break;
+                 case 'b':
+                    batch = true;
+                    break;
+                 case 'B':
+                    batch = true;
+                    jobLines = true;
+                    break;
+                 case 'c':
+                    if ("header".equals(g.getOptarg())) {
+                        probeColorProfile = true;
                     }
-                    else if ("3B".equals(g.getOptarg())) {
-                        pdfxConformance = "PDFA3B";
+                    else if ("decode".equals(g.getOptarg())) {
+                        probeColorProfile = false;
                     }
                     else {
-                        pdfxConformance = "NONE";
+                        usage();
                     }
                     break;
-                 case 'b':
-                    batch = true;
+                 case 'C':
+                    pageCacheDir = g.getOptarg();
+                    break;
+                 case 'd':
+                    daemon = g.getOptarg();
                     break;
                  case 'e':
                     excludeFile = g.getOptarg();
                     break;
+                 case 'f':
+                    fontFile = g.getOptarg();
+                    break;
+                 case 'G':
+                    try {
+                        pageCacheSize = Long.parseLong(g.getOptarg()) * 1024 * 1024;
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    break;
+                 case 'H':
+                    hocr = g.getOptarg();
+                    break;
                  case 'i':
                     includeFile = g.getOptarg();
                     break;
+                 case 'j':
+                    try {
+                        jobs = Integer.parseInt(g.getOptarg());
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    if (jobs < 1) {
+                        usage();
+                    }
+                    break;
+                 case 'k':
+                    try {
+                        outputBufferSize = Integer.parseInt(g.getOptarg()) * 1024;
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    if (outputBufferSize < 1) {
+                        usage();
+                    }
+                    break;
+                 case 'l':
+                    try {
+                        textLayer = TextLayerMode.valueOf(g.getOptarg().toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        usage();
+                    }
+                    break;
+                 case 'm':
+                    try {
+                        pageBufferSize = Long.parseLong(g.getOptarg()) * 1024 * 1024;
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    break;
+                 case 'M':
+                    metricsFile = g.getOptarg();
+                    break;
+                 case 'n':
+                    atomicOutput = false;
+                    break;
                  case 'o':
                     out = g.getOptarg();
                     break;
+                 case 'O':
+                    extra.add(g.getOptarg());
+                    break;
+                 case 'p':
+                    try {
+                        imageProfile = ImageProfile.parse(g.getOptarg());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("error: " + ex.getMessage());
+                        usage();
+                    }
+                    break;
+                 case 'r':
+                    try {
+                        textRuns = HOCRBoxGranularity.valueOf(g.getOptarg().toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        usage();
+                    }
+                    break;
+                 case 'R':
+                    resume = true;
+                    break;
+                 case 's':
+                    hocrStreaming = true;
+                    break;
                  case 't':
                     title = g.getOptarg();
                  case 'v':
                     verbose = true;
                     break;
+                 case 'w':
+                    try {
+                        pageThreads = Integer.parseInt(g.getOptarg());
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    if (pageThreads < 1) {
+                        usage();
+                    }
+                    break;
                  case 'x':
                      pdfVersion = g.getOptarg();
                      break;
+                 case 'y':
+                    try {
+                        prefetchDepth = Integer.parseInt(g.getOptarg());
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    if (prefetchDepth < 0) {
+                        usage();
+                    }
+                    break;
+                 case 'z':
+                    try {
+                        prefetchBudget = Long.parseLong(g.getOptarg()) * 1024 * 1024;
+                    } catch (NumberFormatException ex) {
+                        usage();
+                    }
+                    break;
                  default:
                      usage();
                      break;
                }
         }
         
-        if (g.getOptind() == args.length && ! batch) {
+        if (g.getOptind() == args.length && ! batch && daemon == null) {
             usage();
         }
 
-        if (batch) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        if (! extra.isEmpty() && (batch || daemon != null)) {
+            System.err.println("error: -O is given per line with -B and in server mode");
+            usage();
+        }
 
-            PDFCreator m = new PDFCreator();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.length() == 0 || line.matches("\\s*") || line.matches("\\s*#.*")) {
-                    continue;
-                }
+        try {
+            new DirectoryScanner(includeFile, excludeFile);
+        } catch (PatternSyntaxException ex) {
+            System.err.println("error: -i/-e: " + ex.getMessage());
+            usage();
+        }
+
+        //the shared resources are loaded before the first document
+        try {
+            PDFResources.getFont(fontFile);
+            PDFResources.getColorProfile(colorProfile);
+        } catch (Exception ex) {
+            System.err.println("error: " + ex.getMessage());
+            System.exit(1);
+        }
 
-                String[] parts  = line.split("\\s+");
-                String[] images = scanDirectory(parts[1], includeFile, excludeFile);
+        if (verbose) {
+            System.err.println(PDFResources.getStatistics());
+        }
 
-                m.createPdf(parts[0], images);
+        if (daemon != null) {
+            PDFServer server = new PDFServer(jobs, includeFile, excludeFile);
+
+            if (daemon.matches("\\d+")) {
+                server.listen(Integer.parseInt(daemon));
+            }
+            else {
+                server.watch(new File(daemon));
+            }
+        }
+        else if (batch) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+
+            PDFBatch b = new PDFBatch(jobs, includeFile, excludeFile);
+            b.setJobLines(jobLines);
+
+            if (! b.run(reader)) {
+                System.exit(1);
             }
         }
         else {
@@ -453,8 +1416,20 @@ public class PDFCreator {
                 images.add(args[i]);
             }
 
+            List<PDFOutput> outputs = new ArrayList<PDFOutput>();
+            outputs.add(new PDFOutput(out, pdfxConformance, pdfVersion, imageProfile));
+
+            for (String spec : extra) {
+                try {
+                    outputs.add(PDFOutput.parse(spec, pdfxConformance, pdfVersion, imageProfile));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("error: " + ex.getMessage());
+                    usage();
+                }
+            }
+
             PDFCreator m = new PDFCreator();
-            m.createPdf(out, (String[]) images.toArray(new String[] {}));
+            m.createPdf(outputs, (String[]) images.toArray(new String[] {}), hocr == null ? null : new File(hocr));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import gnu.getopt.Getopt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One document to create: a line of the batch input, or a job sent to the
+ * PDFServer. A line of -b has the columns it always had:
+ *
+ *   output directory [hocr file]
+ *
+ * split on whitespace; further columns are ignored. A line of -B, and a
+ * job of the server, is parsed as a command line:
+ *
+ *   [-a level] [-x version] [-t title] [-p profile] [-H hocr file] [-O output...] output directory [hocr file]
+ *   [-a level] [-x version] [-t title] [-p profile] [-H hocr file] [-O output...] output image [image...]
+ *
+ * The options override the ones of the command line for this document only.
+ * Every -O adds an output that is created in the same pass, see PDFOutput.
+ * Values with spaces go between double quotes, e.g. -t "Liber Floridus".
+ */
+public class PDFJob {
+    private String output;
+    private String[] images;
+    private File hocrFile;
+    private String conformance = PDFCreator.pdfxConformance;
+    private String version = PDFCreator.pdfVersion;
+    private String title = PDFCreator.title;
+    private ImageProfile profile = PDFCreator.imageProfile;
+    private List<PDFOutput> outputs = new ArrayList<PDFOutput>();
+
+    private PDFJob() {
+    }
+
+    /**
+     * Parses a line of -b, '[output file] [image directory] [hocr file]'.
+     * Quotes and leading dashes have no meaning and the columns after the
+     * third are ignored, like they always were.
+     *
+     * @param line the batch line
+     * @param scanner lists the images of the directory
+     * @return the job
+     * @throws IllegalArgumentException when the line has less than 2 columns
+     * @throws IOException when the directory or the HOCR file doesn't exist
+     */
+    public static PDFJob parseColumns(String line, DirectoryScanner scanner) throws IOException {
+        String[] parts = line.split("\\s+");
+        PDFJob job = new PDFJob();
+
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("expected '[output file] [image directory] [hocr file]'");
+        }
+
+        if (! new File(parts[1]).isDirectory()) {
+            throw new IOException(parts[1] + " isn't a directory");
+        }
+
+        job.images = scanner.scan(parts[1]);
+
+        if (job.images.length == 0) {
+            throw new IOException("no images found in " + parts[1]);
+        }
+
+        if (parts.length > 2) {
+            job.hocrFile = new File(parts[2]);
+
+            if (! job.hocrFile.isFile()) {
+                throw new IOException(parts[2] + " isn't a file");
+            }
+        }
+
+        job.output = parts[0];
+        job.outputs.add(new PDFOutput(job.output, job.conformance, job.version, job.profile));
+
+        return job;
+    }
+
+    /**
+     * Parses a job of -B or of the server
+     *
+     * @param line the job
+     * @param scanner lists the images of a directory
+     * @return the job
+     * @throws IllegalArgumentException when the job can't be parsed
+     * @throws IOException when a file of the job doesn't exist
+     */
+    public static PDFJob parse(String line, DirectoryScanner scanner) throws IOException {
+        String[] args = tokenize(line);
+        PDFJob job = new PDFJob();
+
+        List<String> extra = new ArrayList<String>();
+
+        Getopt g = new Getopt("PDFCreator", args, "a:H:O:p:t:x:");
+        g.setOpterr(false);
+
+        int c;
+        while ((c = g.getopt()) != -1) {
+            switch (c) {
+                case 'a':
+                    job.conformance = PDFCreator.parseConformance(g.getOptarg());
+                    break;
+                case 'H':
+                    job.hocrFile = new File(g.getOptarg());
+                    break;
+                case 'O':
+                    extra.add(g.getOptarg());
+                    break;
+                case 'p':
+                    job.profile = ImageProfile.parse(g.getOptarg());
+                    break;
+                case 't':
+                    job.title = g.getOptarg();
+                    break;
+                case 'x':
+                    job.version = g.getOptarg();
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option or missing value in '" + line + "'");
+            }
+        }
+
+        int n = args.length - g.getOptind();
+
+        if (n < 2) {
+            throw new IllegalArgumentException("expected '[output file] [image directory] [hocr file]'");
+        }
+
+        job.output = args[g.getOptind()];
+        job.outputs.add(new PDFOutput(job.output, job.conformance, job.version, job.profile));
+
+        //the other outputs take the settings of the job that they don't set
+        for (String spec : extra) {
+            job.outputs.add(PDFOutput.parse(spec, job.conformance, job.version, job.profile));
+        }
+
+        File first = new File(args[g.getOptind() + 1]);
+
+        if (first.isDirectory()) {
+            if (n > 3) {
+                throw new IllegalArgumentException("expected '[output file] [image directory] [hocr file]'");
+            }
+
+            job.images = scanner.scan(first.getPath());
+
+            if (job.images.length == 0) {
+                throw new IOException("no images found in " + first);
+            }
+
+            if (n == 3) {
+                job.hocrFile = new File(args[g.getOptind() + 2]);
+            }
+        } else {
+            job.images = new String[n - 1];
+
+            for (int i = 0 ; i < job.images.length ; i++) {
+                String image = args[g.getOptind() + 1 + i];
+                if (! new File(image).isFile()) {
+                    throw new IOException(image + " isn't a directory or an image");
+                }
+                job.images[i] = image;
+            }
+        }
+
+        if (job.hocrFile != null && ! job.hocrFile.isFile()) {
+            throw new IOException(job.hocrFile + " isn't a file");
+        }
+
+        return job;
+    }
+
+    /**
+     * Creates the document
+     *
+     * @param creator the PDFCreator to use, its settings are set to the ones
+     *        of the job
+     * @return the number of pages
+     * @throws Exception in case of PDF creation errors
+     */
+    public int run(PDFCreator creator) throws Exception {
+        creator.setConformance(conformance);
+        creator.setVersion(version);
+        creator.setTitle(title);
+        creator.setImageProfile(profile);
+
+        return creator.createPdf(outputs, images, hocrFile);
+    }
+
+    /**
+     * Returns the output file of a job line, for error messages about
+     * lines that can't be parsed
+     *
+     * @param line the job
+     * @return the first word that isn't an option
+     */
+    public static String outputOf(String line) {
+        String[] args;
+
+        try {
+            args = tokenize(line);
+        } catch (IllegalArgumentException ex) {
+            return line;
+        }
+
+        for (int i = 0 ; i < args.length ; i++) {
+            if (args[i].startsWith("-")) {
+                //skip the value, unless it's attached (-a1B)
+                if (args[i].length() == 2 && "aHOptx".indexOf(args[i].charAt(1)) != -1) {
+                    i++;
+                }
+            } else {
+                return args[i];
+            }
+        }
+
+        return line;
+    }
+
+    /*
+        splits a line on whitespace, except between double quotes
+    */
+    static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+
+        for (int i = 0 ; i < line.length() ; i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                quoted = ! quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && ! quoted) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("unbalanced quotes in '" + line + "'");
+        }
+
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public String[] getImages() {
+        return images;
+    }
+
+    public File getHocrFile() {
+        return hocrFile;
+    }
+
+    /**
+     * @return the output and the outputs of -O
+     */
+    public List<PDFOutput> getOutputs() {
+        return outputs;
+    }
+
+    public String getConformance() {
+        return conformance;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public ImageProfile getImageProfile() {
+        return profile;
+    }
+}
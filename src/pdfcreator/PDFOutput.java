@@ -0,0 +1,318 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.pdf.ICC_Profile;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * One of the PDF files that is created out of a list of images. The pages
+ * are decoded and laid out once and written to every output, e.g. a PDF/A
+ * archival file and an access copy:
+ *
+ *   -a 1B -o archive.pdf -O access.pdf,a=NONE,x=1.5,p=access
+ *
+ * An output is given as file[,a=LEVEL][,x=VERSION][,p=PROFILE], the settings
+ * that are left out are the ones of the main output.
+ *
+ * The PDF goes through a large buffer to a FileChannel. A regular file is
+ * written as .[name].[random].part next to it and renamed when the document
+ * is complete, so a partial output never has the name of a finished one and
+ * two writers of the same output don't share a part file.
+ * "-" and /dev/stdout are the standard output.
+ */
+public class PDFOutput {
+    private final String filename;
+    private final String conformance;
+    private final String version;
+    private final ImageProfile profile;
+
+    private CountingOutputStream stream;
+    private Path target;
+    private Path part;
+    //the output file was created by open, not written over in place
+    private boolean created;
+    private boolean committed;
+    private long opened;
+
+    //the state while the output is written
+    Document doc;
+    PdfWriter writer;
+    ICC_Profile icc;
+    int passthrough;
+    int encoded;
+    long sourceBytes;
+    long encodedBytes;
+    long encodeNanos;
+
+    /**
+     * Create a new PDFOutput instance
+     *
+     * @param filename the output file
+     * @param conformance PDFA1A, PDFA1B, PDFA2A, PDFA2B, PDFA3A, PDFA3B or NONE
+     * @param version "1.4" to "1.7"
+     * @param profile how the images are embedded
+     */
+    public PDFOutput(String filename, String conformance, String version, ImageProfile profile) {
+        this.filename = filename;
+        this.conformance = conformance;
+        this.version = version;
+        this.profile = profile;
+    }
+
+    /**
+     * Returns the output for the argument of the -O option
+     *
+     * @param spec file[,a=LEVEL][,x=VERSION][,p=PROFILE]
+     * @param conformance the conformance when there is no a=
+     * @param version the PDF version when there is no x=
+     * @param profile the image profile when there is no p=
+     * @return the output
+     * @throws IllegalArgumentException when the spec can't be parsed
+     */
+    public static PDFOutput parse(String spec, String conformance, String version, ImageProfile profile) {
+        String[] parts = spec.split(",");
+
+        if (parts[0].length() == 0) {
+            throw new IllegalArgumentException("no output file in '" + spec + "'");
+        }
+
+        for (int i = 1 ; i < parts.length ; i++) {
+            String part = parts[i];
+
+            if (part.startsWith("a=")) {
+                conformance = PDFCreator.parseConformance(part.substring(2));
+            }
+            else if (part.startsWith("x=")) {
+                version = part.substring(2);
+            }
+            else if (part.startsWith("p=")) {
+                profile = ImageProfile.parse(part.substring(2));
+            }
+            else {
+                throw new IllegalArgumentException("unknown setting '" + part + "' in '" + spec + "'");
+            }
+        }
+
+        return new PDFOutput(parts[0], conformance, version, profile);
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getConformance() {
+        return conformance;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public ImageProfile getImageProfile() {
+        return profile;
+    }
+
+    /**
+     * Opens the stream for the PdfWriter
+     *
+     * @param bufferSize the size of the output buffer
+     * @param atomic write a regular file as a part file that is renamed by
+     *        commit
+     * @return the stream
+     * @throws IOException when the file can't be created
+     */
+    OutputStream open(int bufferSize, boolean atomic) throws IOException {
+        opened = System.nanoTime();
+
+        if (filename.equals("-") || filename.equals("/dev/stdout")) {
+            stream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), bufferSize), null, true);
+            return stream;
+        }
+
+        target = Paths.get(filename);
+        created = ! Files.exists(target);
+        Path path = target;
+
+        //a pipe or a device can't be renamed
+        if (atomic && (Files.isRegularFile(target) || ! Files.exists(target))) {
+            Path dir = target.toAbsolutePath().getParent();
+            //a name of its own for every writer of this output
+            part = createPartFile(dir, "." + target.getFileName() + ".");
+            path = part;
+        }
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        stream = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), bufferSize),
+                part == null ? null : channel, false);
+
+        return stream;
+    }
+
+    /*
+        createTempFile makes the file readable by its owner only; with
+        rw-rw-rw- the umask applies, as for an output written in place
+    */
+    private static Path createPartFile(Path dir, String prefix) throws IOException {
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            FileAttribute<?> permissions = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-rw-rw-"));
+            return Files.createTempFile(dir, prefix, ".part", permissions);
+        }
+
+        return Files.createTempFile(dir, prefix, ".part");
+    }
+
+    /**
+     * Renames the part file of a complete document to the output file. The
+     * stream is closed by then, with the document. After commit the output
+     * is finished and abort leaves it alone.
+     *
+     * @throws IOException when the part file can't be renamed
+     */
+    void commit() throws IOException {
+        if (part != null) {
+            try {
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        committed = true;
+    }
+
+    /**
+     * Closes the stream of a document that failed and removes what was
+     * written of it: the part file, or the output file when it was written
+     * in place (-n) and didn't exist before. A file that was there before is
+     * left as it is, incomplete, and a committed output isn't touched.
+     */
+    void abort() {
+        if (stream == null || committed) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException ex) {
+            //it is removed anyway
+        }
+
+        try {
+            if (part != null) {
+                Files.deleteIfExists(part);
+            }
+            else if (target != null && created && Files.isRegularFile(target)) {
+                Files.delete(target);
+            }
+            else if (target != null && Files.isRegularFile(target)) {
+                System.err.println("warning: " + target + " is incomplete, it was written in place");
+            }
+        } catch (IOException ex) {
+            System.err.println("warning: can't remove the partial output " + (part != null ? part : target) + ": " + ex);
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long getBytes() {
+        return stream == null ? 0 : stream.count;
+    }
+
+    /**
+     * @return the number of nanoseconds since the output was opened
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - opened;
+    }
+
+    @Override
+    public String toString() {
+        return filename;
+    }
+
+    /*
+        counts the bytes, and syncs a part file before it is renamed; the
+        standard output is flushed but left open
+    */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final FileChannel channel;
+        private final boolean keepOpen;
+        private long count = 0;
+        private boolean closed = false;
+
+        CountingOutputStream(OutputStream out, FileChannel channel, boolean keepOpen) {
+            super(out);
+            this.channel = channel;
+            this.keepOpen = keepOpen;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            out.flush();
+
+            if (keepOpen) {
+                return;
+            }
+
+            if (channel != null) {
+                channel.force(true);
+            }
+
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.Image;
+import com.itextpdf.text.ImgCCITT;
+import com.itextpdf.text.Jpeg;
+import com.itextpdf.text.Jpeg2000;
+import java.io.File;
+import java.util.List;
+
+/**
+ * A page that is ready to be written: the decoded image and the laid out
+ * text layer.
+ *
+ * JPEG and JPEG 2000 images are passed through: only their header is read,
+ * and the compressed data of the file is copied into the PDF as it is when
+ * the page is written. The rows of a TIFF raster are compressed while the
+ * page is written. Other images are decoded and compressed again.
+ */
+public class PDFPage {
+    private final int index;
+    private final String filename;
+    private final Image image;
+    private final TiffRaster raster;
+    private File rasterData;
+    private final List<PDFTextRun> text;
+    private long encodeNanos = -1;
+
+    public PDFPage(int index, String filename, Image image, List<PDFTextRun> text) {
+        this(index, filename, image, null, text);
+    }
+
+    /**
+     * Create a new PDFPage instance
+     *
+     * @param index the page index
+     * @param filename the page image
+     * @param image the image to place on the page
+     * @param raster the TIFF raster that is written with the page, or null
+     *        when the image holds its own data
+     * @param text the text layer, or null
+     */
+    public PDFPage(int index, String filename, Image image, TiffRaster raster, List<PDFTextRun> text) {
+        this.index = index;
+        this.filename = filename;
+        this.image = image;
+        this.raster = raster;
+        this.text = text;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    /**
+     * @return the TIFF raster to write with the page, or null
+     */
+    public TiffRaster getRaster() {
+        return raster;
+    }
+
+    /**
+     * @return the compressed raster in the page cache, or null to compress
+     *         the raster while it is written
+     */
+    public File getRasterData() {
+        return rasterData;
+    }
+
+    void setRasterData(File rasterData) {
+        this.rasterData = rasterData;
+    }
+
+    /**
+     * isEncoded
+     *
+     * @return true when the image was downsampled or compressed again by an
+     *         image profile
+     */
+    public boolean isEncoded() {
+        return encodeNanos >= 0;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    void setEncodeNanos(long encodeNanos) {
+        this.encodeNanos = encodeNanos;
+    }
+
+    /**
+     * isPassthrough
+     *
+     * @return true when the compressed data of the image file is embedded
+     *         without decoding it
+     */
+    public boolean isPassthrough() {
+        return image instanceof Jpeg || image instanceof Jpeg2000;
+    }
+
+    /**
+     * getFilter
+     *
+     * @return the PDF filter of the image stream
+     */
+    public String getFilter() {
+        if (image instanceof Jpeg) {
+            return "DCTDecode";
+        }
+        if (image instanceof Jpeg2000) {
+            return "JPXDecode";
+        }
+        if (image instanceof ImgCCITT) {
+            return "CCITTFaxDecode";
+        }
+        return "FlateDecode";
+    }
+
+    /**
+     * getImageSize
+     *
+     * @return the size of the file for a passed through or streamed image,
+     *         the size of the compressed or decoded data otherwise
+     */
+    public long getImageSize() {
+        if (raster == null && image.getRawData() != null) {
+            return image.getRawData().length;
+        }
+        return new File(filename).length();
+    }
+
+    /**
+     * @return the text layer or null when there is no OCR for this page
+     */
+    public List<PDFTextRun> getText() {
+        return text;
+    }
+
+    /**
+     * Estimates how many bytes this page keeps on the heap. The data of a
+     * passed through or streamed image is only read when the page is written.
+     *
+     * @return long
+     */
+    public long getSize() {
+        long size = 1024;
+
+        byte[] raw = image.getRawData();
+
+        if (raw != null) {
+            size += raw.length;
+        }
+
+        if (text != null) {
+            for (PDFTextRun run : text) {
+                size += 64 + 2 * run.getLength() + 8 * run.getAdjustments().length;
+            }
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.ICC_Profile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fonts and color profiles shared by all documents of the process.
+ *
+ * Each resource is loaded once, on first use, and never changed afterwards,
+ * so the same instance is handed to every PDFCreator and thread. The time
+ * spent loading is kept for the verbose output.
+ */
+public class PDFResources {
+    private static final Map<String, BaseFont> fonts = new HashMap<String, BaseFont>();
+    private static final Map<String, ICC_Profile> profiles = new HashMap<String, ICC_Profile>();
+    private static long fontNanos = 0;
+    private static long profileNanos = 0;
+
+    private PDFResources() {
+    }
+
+    /**
+     * Returns a TrueType font, embedded with the WinAnsi encoding
+     *
+     * @param name a .ttf file or a resource on the classpath
+     * @return the font
+     * @throws DocumentException when the font can't be used
+     * @throws IOException when the font can't be read
+     */
+    public static synchronized BaseFont getFont(String name) throws DocumentException, IOException {
+        BaseFont font = fonts.get(name);
+
+        if (font == null) {
+            long start = System.nanoTime();
+            /*
+                type 1 fonts are NOT embedded, despite the flag BaseFont.EMBEDDED
+                so we'll have to force it by supplying the ttf file
+            */
+            font = BaseFont.createFont(name, BaseFont.WINANSI, BaseFont.EMBEDDED);
+            fontNanos += System.nanoTime() - start;
+            fonts.put(name, font);
+        }
+
+        return font;
+    }
+
+    /**
+     * Returns an ICC profile
+     *
+     * @param name a resource on the classpath or an .icc file
+     * @return the profile
+     * @throws IOException when the profile can't be found or read
+     */
+    public static synchronized ICC_Profile getColorProfile(String name) throws IOException {
+        ICC_Profile profile = profiles.get(name);
+
+        if (profile == null) {
+            long start = System.nanoTime();
+            profile = ICC_Profile.getInstance(read(name));
+            profileNanos += System.nanoTime() - start;
+            profiles.put(name, profile);
+        }
+
+        return profile;
+    }
+
+    /**
+     * getStatistics
+     *
+     * @return the number of resources and the time it took to load them
+     */
+    public static synchronized String getStatistics() {
+        return String.format("resources: %d font(s) in %.1f ms, %d color profile(s) in %.1f ms",
+                fonts.size(), fontNanos / 1e6, profiles.size(), profileNanos / 1e6);
+    }
+
+    private static byte[] read(String name) throws IOException {
+        InputStream in = PDFResources.class.getClassLoader().getResourceAsStream(name);
+
+        if (in == null && new File(name).isFile()) {
+            in = new FileInputStream(name);
+        }
+
+        if (in == null) {
+            throw new IOException("No " + name + " found");
+        }
+
+        try {
+            ByteArrayOutputStream bas = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while ((n = in.read(buffer)) != -1) {
+                bas.write(buffer, 0, n);
+            }
+
+            return bas.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one JVM running and creates documents for the jobs it is sent, so
+ * JVM startup, class loading and JIT warm-up are paid once instead of once
+ * per document.
+ *
+ * Jobs are PDFJob lines. They are taken from a socket on the loopback
+ * interface, one job per line and one status line back per job. Every user
+ * of the machine can connect to the loopback interface, so a connection
+ * starts with the line "token [token]". The token is made when the server
+ * starts and is written to ~/.pdfcreator-[port].token, which only the user
+ * of the server can read. A connection without it gets "error unauthorized"
+ * and is closed.
+ *
+ *   ok [output] pages=[n] wait=[seconds] time=[seconds]
+ *   error [output] [message]
+ *
+ * The line "status" returns the totals of the server, "quit" closes the
+ * connection and "shutdown" stops the server.
+ *
+ * Or jobs are taken from a spool directory: a file [name].job is renamed to
+ * [name].job.running, its lines are run, the status lines are written to
+ * [name].status and the job file is renamed to [name].job.done. Who can
+ * send jobs is who can write to the directory.
+ */
+public class PDFServer {
+    private static final long SPOOL_INTERVAL = 1000;
+
+    private final int jobs;
+    private final DirectoryScanner scanner;
+    private final ExecutorService pool;
+    private final long started = System.nanoTime();
+
+    private final AtomicInteger documents = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+    private byte[] token;
+    private File tokenFile;
+
+    private final ThreadLocal<PDFCreator> creators = new ThreadLocal<PDFCreator>() {
+        @Override
+        protected PDFCreator initialValue() {
+            return new PDFCreator();
+        }
+    };
+
+    /**
+     * Create a new server
+     *
+     * @param jobs number of documents that are created in parallel
+     * @param include regex of the files to include (or null)
+     * @param exclude regex of the files to exclude (or null)
+     * @throws java.util.regex.PatternSyntaxException when a regex is invalid
+     */
+    public PDFServer(int jobs, String include, String exclude) {
+        this.jobs = jobs < 1 ? 1 : jobs;
+        this.scanner = new DirectoryScanner(include, exclude);
+        this.pool = Executors.newFixedThreadPool(this.jobs);
+    }
+
+    /**
+     * Queues a job
+     *
+     * @param line the job
+     * @return the status line of the job, when it is done
+     */
+    public Future<String> submit(final String line) {
+        final long queued = System.nanoTime();
+
+        return pool.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return run(line, queued);
+            }
+        });
+    }
+
+    protected String run(String line, long queued) {
+        long start = System.nanoTime();
+
+        try {
+            PDFJob job = PDFJob.parse(line, scanner);
+
+            int n = job.run(creators.get());
+
+            pages.addAndGet(n);
+            documents.incrementAndGet();
+
+            return String.format("ok %s pages=%d wait=%.3f time=%.3f",
+                    job.getOutput(), n, (start - queued) / 1e9, (System.nanoTime() - start) / 1e9);
+        } catch (Exception ex) {
+            failures.incrementAndGet();
+            System.err.println("error: " + PDFJob.outputOf(line) + ": " + ex);
+
+            return "error " + PDFJob.outputOf(line) + " " + String.valueOf(ex).replaceAll("\\s+", " ");
+        }
+    }
+
+    /**
+     * status
+     *
+     * @return the totals of the server
+     */
+    public String status() {
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        return String.format("status documents=%d failures=%d pages=%d jobs=%d connections=%d uptime=%.0f",
+                documents.get(), failures.get(), pages.get(), jobs, connections.get(), seconds);
+    }
+
+    /**
+     * Takes jobs from a socket on the loopback interface, until shutdown
+     *
+     * @param port the port
+     * @throws IOException when the port can't be opened
+     */
+    public void listen(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        writeToken(serverSocket.getLocalPort());
+
+        System.err.println("listening on " + serverSocket.getLocalSocketAddress() + " with " + jobs + " jobs, token in " + tokenFile);
+
+        try {
+            while (running) {
+                final Socket socket;
+
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException ex) {
+                    //closed by shutdown
+                    break;
+                }
+
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "connection-" + connections.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /*
+        writes a new random token to a file that only the user can read
+    */
+    private void writeToken(int port) throws IOException {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        token = hex.toString().getBytes("UTF-8");
+        tokenFile = new File(System.getProperty("user.home"), ".pdfcreator-" + port + ".token");
+
+        Path path = tokenFile.toPath();
+        Files.deleteIfExists(path);
+
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException ex) {
+            //not a POSIX file system
+            Files.createFile(path);
+        }
+
+        Files.write(path, (hex + "\n").getBytes("UTF-8"));
+        tokenFile.deleteOnExit();
+    }
+
+    private boolean authorized(String line) {
+        if (! line.startsWith("token ")) {
+            return false;
+        }
+
+        try {
+            return MessageDigest.isEqual(token, line.substring("token ".length()).trim().getBytes("UTF-8"));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+            boolean authorized = false;
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                if (! authorized) {
+                    authorized = authorized(line);
+
+                    if (! authorized) {
+                        out.println("error unauthorized");
+                        break;
+                    }
+                    continue;
+                }
+                if (line.equals("quit")) {
+                    break;
+                }
+                if (line.equals("status")) {
+                    out.println(status());
+                    continue;
+                }
+                if (line.equals("shutdown")) {
+                    out.println("ok shutdown");
+                    shutdown();
+                    break;
+                }
+
+                out.println(waitFor(submit(line), line));
+            }
+        } catch (IOException ex) {
+            System.err.println("error: connection: " + ex);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                //nothing left to do
+            }
+        }
+    }
+
+    /**
+     * Takes jobs from the .job files of a spool directory, until shutdown
+     *
+     * @param spool the spool directory
+     * @throws IOException when the spool directory can't be used
+     * @throws InterruptedException when interrupted while waiting for jobs
+     */
+    public void watch(File spool) throws IOException, InterruptedException {
+        if (! spool.isDirectory()) {
+            throw new IOException(spool + " isn't a directory");
+        }
+
+        System.err.println("watching " + spool + " with " + jobs + " jobs");
+
+        try {
+            while (running) {
+                File[] files = spool.listFiles(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File dir, String name) {
+                        return name.endsWith(".job");
+                    }
+                });
+
+                if (files == null || files.length == 0) {
+                    Thread.sleep(SPOOL_INTERVAL);
+                    continue;
+                }
+
+                Arrays.sort(files);
+
+                for (File file : files) {
+                    try {
+                        runJobFile(file);
+                    } catch (IOException ex) {
+                        //one bad job file doesn't stop the server
+                        System.err.println("error: job file " + file + ": " + ex);
+                        new File(file.getPath() + ".running").renameTo(new File(file.getPath() + ".failed"));
+                    }
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    private void runJobFile(File file) throws IOException {
+        File claimed = new File(file.getPath() + ".running");
+
+        //another server took it
+        if (! file.renameTo(claimed)) {
+            return;
+        }
+
+        List<String> lines = new ArrayList<String>();
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(claimed), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                lines.add(line);
+                results.add(submit(line));
+            }
+        } finally {
+            in.close();
+        }
+
+        String name = file.getName().substring(0, file.getName().length() - ".job".length());
+        File status = new File(file.getParentFile(), name + ".status");
+        File tmp = new File(file.getParentFile(), name + ".status.tmp");
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+        try {
+            for (int i = 0 ; i < results.size() ; i++) {
+                out.write(waitFor(results.get(i), lines.get(i)));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+
+        if (! tmp.renameTo(status)) {
+            throw new IOException("can't rename " + tmp + " to " + status);
+        }
+
+        claimed.renameTo(new File(file.getPath() + ".done"));
+    }
+
+    private String waitFor(Future<String> result, String line) {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return "error " + PDFJob.outputOf(line) + " interrupted";
+        } catch (ExecutionException ex) {
+            return "error " + PDFJob.outputOf(line) + " " + ex.getCause();
+        }
+    }
+
+    /**
+     * Stops taking new jobs. The jobs that were queued are finished.
+     */
+    public void shutdown() {
+        running = false;
+
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ex) {
+                //nothing left to do
+            }
+        }
+    }
+
+    private void stop() {
+        if (tokenFile != null) {
+            tokenFile.delete();
+        }
+
+        pool.shutdown();
+        System.err.println(status());
+    }
+
+    public int getDocuments() {
+        return documents.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+}
@@ -3,56 +3,214 @@
  */
 package pdfcreator;
 
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
 import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import gnu.getopt.Getopt;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
  * @author hochsten
  */
 public class PDFTextExtract {
+    private int threads = 1;
+
+    /**
+     * Receives the text of the pages while they are extracted
+     */
+    public interface PageHandler {
+        /**
+         * @param page the page number, starting at 1
+         * @param text the text of the page
+         * @throws IOException when the text can't be written
+         */
+        void page(int page, String text) throws IOException;
+    }
+
     public PDFTextExtract() {}
-    
+
+    /**
+     * Sets the number of threads that extract pages, each with its own
+     * reader of the file
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
     public String[] extract(String filename) throws IOException {
-        PdfReader reader = new PdfReader(filename);
-        int pages = reader.getNumberOfPages();
-        
-        String[] result = new String[pages];
-        
-        for (int i = 0 ; i < pages ; i++) {
-            String text = PdfTextExtractor.getTextFromPage(reader, i + 1);
-           
-            result[i] = text;
-        }
-        
-        return result;
-    }
-    
+        //every page is handed over once, so the list ends at the last page
+        final List<String> result = new ArrayList<String>();
+
+        extract(filename, new PageHandler() {
+            @Override
+            public void page(int page, String text) {
+                synchronized (result) {
+                    while (result.size() < page) {
+                        result.add(null);
+                    }
+                    result.set(page - 1, text);
+                }
+            }
+        });
+
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Extracts the text of a PDF one page at a time. The file is read
+     * partially and every page is released after its text is extracted, so
+     * the heap doesn't grow with the number of pages.
+     *
+     * With one thread the pages are handed over in order. With more threads
+     * the handler is called from all of them, in the order the pages are
+     * done.
+     *
+     * @param filename the PDF file
+     * @param handler receives the text of every page
+     * @throws IOException when the PDF can't be read or the handler fails
+     */
+    public void extract(final String filename, final PageHandler handler) throws IOException {
+        if (threads == 1) {
+            extract(filename, handler, new AtomicInteger(1));
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger(1);
+        final IOException[] errors = new IOException[threads];
+        Thread[] workers = new Thread[threads];
+
+        for (int i = 0 ; i < threads ; i++) {
+            final int worker = i;
+
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        extract(filename, handler, next);
+                    } catch (IOException ex) {
+                        errors[worker] = ex;
+                        //the other workers stop after their page
+                        next.set(Integer.MAX_VALUE / 2);
+                    } catch (RuntimeException ex) {
+                        errors[worker] = new IOException(ex);
+                        next.set(Integer.MAX_VALUE / 2);
+                    }
+                }
+            }, "text-extract-" + i);
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while extracting " + filename);
+            }
+        }
+
+        for (IOException ex : errors) {
+            if (ex != null) {
+                throw ex;
+            }
+        }
+    }
+
+    /*
+        extracts the pages that are taken from next with a reader of its own
+    */
+    private void extract(String filename, PageHandler handler, AtomicInteger next) throws IOException {
+        PdfReader reader = open(filename);
+
+        try {
+            int pages = reader.getNumberOfPages();
+            int page;
+
+            while ((page = next.getAndIncrement()) <= pages) {
+                String text = PdfTextExtractor.getTextFromPage(reader, page);
+
+                reader.releasePage(page);
+
+                handler.page(page, text);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+        opens the file for partial reading: the objects are read when they
+        are needed, not all at once
+    */
+    private static PdfReader open(String filename) throws IOException {
+        return new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createBestSource(filename)), null);
+    }
+
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.println("usage: PDFTextExtract file out");
+        int threads = 1;
+
+        Getopt g = new Getopt("PDFTextExtract", args, "j:");
+
+        int c;
+        while ((c = g.getopt()) != -1) {
+            switch (c) {
+                case 'j':
+                    try {
+                        threads = Integer.parseInt(g.getOptarg());
+                    } catch (NumberFormatException ex) {
+                        threads = 0;
+                    }
+                    break;
+                default:
+                    threads = 0;
+                    break;
+            }
+        }
+
+        if (args.length - g.getOptind() != 2 || threads < 1) {
+            System.err.println("usage: PDFTextExtract [-j threads] file out");
             System.exit(1);
         }
-        
-        String filename = args[0];
-        String output = args[1];
-        
+
+        String filename = args[g.getOptind()];
+        final String output = args[g.getOptind() + 1];
+
         if (! (new File(output)).isDirectory()) {
             System.err.println("output " + output + " isn't a directory");
         }
-        
+
         PDFTextExtract tool = new PDFTextExtract();
-        String[] pages = tool.extract(filename);
-        
-        for (int i = 0 ; i < pages.length ; i++) {
-            String out_file = output + "/page_" + (i+1) + ".txt";
-            System.out.println("creating file " + out_file);
-            PrintWriter out = new PrintWriter(out_file);
-            out.print(pages[i]);
-            out.close();
-        }
+        tool.setThreads(threads);
+
+        //every page is written as soon as its text is extracted
+        tool.extract(filename, new PageHandler() {
+            @Override
+            public void page(int page, String text) throws IOException {
+                String out_file = output + "/page_" + page + ".txt";
+                System.out.println("creating file " + out_file);
+                Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out_file), "UTF-8"));
+                try {
+                    out.write(text);
+                } finally {
+                    out.close();
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,156 @@
+package pdfcreator;
+
+/**
+ * A piece of OCR text that was laid out for the invisible text layer of a page.
+ *
+ * A run is either one word, or a whole line: the words of the line are shown
+ * in one text object. Each word has a horizontal scaling that fits it in its
+ * box, and an adjustment (in thousandths of a text space unit, as in a TJ
+ * array) that moves it to the start of its box.
+ *
+ * All coordinates are in PDF space (origin bottom-left).
+ */
+public class PDFTextRun {
+
+    private final float llx;
+    private final float lly;
+    private final float urx;
+    private final float ury;
+    private final float fontSize;
+    private final float slope;
+    private final float x;
+    private final float y;
+    private final String[] texts;
+    private final float[] scalings;
+    private final float[] adjustments;
+
+    /**
+     * Create a new PDFTextRun instance
+     *
+     * @param llx lower left x of the OCR box
+     * @param lly lower left y of the OCR box
+     * @param urx upper right x of the OCR box
+     * @param ury upper right y of the OCR box
+     * @param fontSize the font size that fills the OCR box
+     * @param x x position of the text
+     * @param y y position of the text
+     * @param text the OCR text
+     */
+    public PDFTextRun(float llx, float lly, float urx, float ury, float fontSize, float x, float y, String text) {
+        this(llx, lly, urx, ury, fontSize, 0, x, y, new String[] { text }, new float[] { 100 }, new float[] { 0 });
+    }
+
+    /**
+     * Create a new PDFTextRun instance for the words of a line
+     *
+     * @param llx lower left x of the OCR line
+     * @param lly lower left y of the OCR line
+     * @param urx upper right x of the OCR line
+     * @param ury upper right y of the OCR line
+     * @param fontSize the font size
+     * @param slope the slope of the baseline
+     * @param x x position of the text
+     * @param y y position of the text
+     * @param texts the words
+     * @param scalings the horizontal scaling of each word, in percent
+     * @param adjustments the adjustment before each word
+     */
+    public PDFTextRun(float llx, float lly, float urx, float ury, float fontSize,
+            float slope, float x, float y, String[] texts, float[] scalings, float[] adjustments) {
+        this.llx = llx;
+        this.lly = lly;
+        this.urx = urx;
+        this.ury = ury;
+        this.fontSize = fontSize;
+        this.slope = slope;
+        this.x = x;
+        this.y = y;
+        this.texts = texts;
+        this.scalings = scalings;
+        this.adjustments = adjustments;
+    }
+
+    public float getLlx() {
+        return llx;
+    }
+
+    public float getLly() {
+        return lly;
+    }
+
+    public float getUrx() {
+        return urx;
+    }
+
+    public float getUry() {
+        return ury;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    /**
+     * getSlope
+     *
+     * @return the slope (dy/dx) of the baseline, 0 for horizontal text
+     */
+    public float getSlope() {
+        return slope;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * getText
+     *
+     * @return all the text of the run
+     */
+    public String getText() {
+        if (texts.length == 1) {
+            return texts[0];
+        }
+
+        StringBuilder sb = new StringBuilder(getLength());
+        for (String text : texts) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * getLength
+     *
+     * @return the number of characters of the run
+     */
+    public int getLength() {
+        int length = 0;
+        for (String text : texts) {
+            length += text.length();
+        }
+        return length;
+    }
+
+    public String[] getTexts() {
+        return texts;
+    }
+
+    /**
+     * getScalings
+     *
+     * @return the horizontal scaling of each text in percent, 100 is none
+     */
+    public float[] getScalings() {
+        return scalings;
+    }
+
+    public float[] getAdjustments() {
+        return adjustments;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of prepared page files that is shared by all documents and
+ * runs, e.g. to create a document again after its title changed. The files
+ * are named after the hash of what they were made of (see PageCheckpoint):
+ *
+ *   images-[key]   the encoded images of a page
+ *   text-[key]     the laid out text of a page
+ *   raster-[key]   the Flate compressed raster of a TIFF master
+ *
+ * A file that is used gets the current time as modification time. When the
+ * directory grows over its size, the files that were used least recently
+ * are removed until it is at 90% of its size. Several processes can share
+ * the directory: files are written under a temporary name and renamed.
+ * Temporary files don't count in the size; the ones that are older than an
+ * hour were left by a process that died and are removed. A file that is
+ * held (see hold) isn't removed by this process until it is released.
+ */
+public class PageCache {
+    private static final long TMP_GRACE = 60 * 60 * 1000L;
+
+    private final File dir;
+    private final long maxBytes;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evicted = 0;
+    //name: how many times it is held
+    private final Map<String, Integer> held = new HashMap<String, Integer>();
+
+    /**
+     * Create a new PageCache instance
+     *
+     * @param dir the directory, it is created when it doesn't exist
+     * @param maxBytes the size of the directory
+     * @throws IOException when the directory can't be created
+     */
+    public PageCache(File dir, long maxBytes) throws IOException {
+        if (! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.size = scan();
+    }
+
+    /**
+     * Returns a file of the cache and marks it as used
+     *
+     * @param name the name of the file
+     * @return the file, or null when it isn't in the cache
+     */
+    public File get(String name) {
+        File file = new File(dir, name);
+
+        if (! file.isFile()) {
+            synchronized (this) {
+                misses++;
+            }
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+
+        synchronized (this) {
+            hits++;
+        }
+
+        return file;
+    }
+
+    /**
+     * contains
+     *
+     * @param name the name of a file
+     * @return true when the file is in the cache, without marking it as used
+     */
+    public boolean contains(String name) {
+        return new File(dir, name).isFile();
+    }
+
+    /**
+     * Keeps a file from being removed until it is released, e.g. while a
+     * page that refers to it waits to be written. Hold the name before the
+     * file is taken with get or put.
+     *
+     * @param name the name of the file
+     */
+    public synchronized void hold(String name) {
+        Integer count = held.get(name);
+        held.put(name, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Releases a file that was held
+     *
+     * @param name the name of the file
+     */
+    public synchronized void release(String name) {
+        Integer count = held.get(name);
+
+        if (count == null || count <= 1) {
+            held.remove(name);
+        } else {
+            held.put(name, count - 1);
+        }
+    }
+
+    /**
+     * Creates a temporary file in the cache directory, to write a file that
+     * is added with put
+     *
+     * @param name the name of the file that will be added
+     * @return the temporary file
+     * @throws IOException when the file can't be created
+     */
+    public File createTempFile(String name) throws IOException {
+        return File.createTempFile("." + name + "-", ".tmp", dir);
+    }
+
+    /**
+     * Adds a file to the cache
+     *
+     * @param tmp the file, made with createTempFile
+     * @param name the name of the file in the cache
+     * @return the file in the cache
+     * @throws IOException when the file can't be renamed
+     */
+    public File put(File tmp, String name) throws IOException {
+        File file = new File(dir, name);
+        long length = tmp.length();
+
+        //the same content, added by another page or process
+        if (file.isFile()) {
+            tmp.delete();
+            return file;
+        }
+
+        if (! tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("can't rename " + tmp + " to " + file);
+        }
+
+        synchronized (this) {
+            size += length;
+
+            if (size > maxBytes) {
+                evict();
+            }
+        }
+
+        return file;
+    }
+
+    /*
+        removes the least recently used files that aren't held; the
+        directory is listed again, other processes add files too
+    */
+    private void evict() {
+        File[] files = listFiles();
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        size = 0;
+
+        for (int i = 0 ; i < files.length ; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            size += files[i].length();
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified[a], modified[b]);
+            }
+        });
+
+        long target = maxBytes / 10 * 9;
+
+        for (int i = 0 ; i < order.length && size > target ; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+
+            if (held.containsKey(file.getName())) {
+                continue;
+            }
+
+            if (file.delete()) {
+                size -= length;
+                evicted++;
+            }
+        }
+    }
+
+    private long scan() {
+        long total = 0;
+
+        for (File file : listFiles()) {
+            total += file.length();
+        }
+
+        return total;
+    }
+
+    /*
+        lists the files of the cache, without the temporary files; the
+        temporary files that are older than TMP_GRACE are removed
+    */
+    private File[] listFiles() {
+        File[] files = dir.listFiles();
+
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> cached = new ArrayList<File>(files.length);
+        long expired = System.currentTimeMillis() - TMP_GRACE;
+
+        for (File file : files) {
+            if (! file.getName().endsWith(".tmp")) {
+                cached.add(file);
+            }
+            else if (file.lastModified() < expired) {
+                file.delete();
+            }
+        }
+
+        return cached.toArray(new File[cached.size()]);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("page cache: %d hits, %d misses, %d evicted, %.1f of %.1f MB",
+                hits, misses, evicted, size / 1e6, maxBytes / 1e6);
+    }
+}
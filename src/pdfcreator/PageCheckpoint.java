@@ -0,0 +1,839 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.ImgCCITT;
+import com.itextpdf.text.ImgRaw;
+import com.itextpdf.text.Jpeg;
+import com.itextpdf.text.pdf.ICC_Profile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The prepared pages of one document, kept in a directory next to the
+ * output (.[name].pages) so a run that failed, or a run after some images
+ * or HOCR files changed, only prepares the pages that aren't done or that
+ * changed.
+ *
+ * The manifest has a line per prepared page:
+ *
+ *   [page index] [image key] [text key]
+ *
+ * and a line per image and HOCR file that was hashed:
+ *
+ *   hash [size] [modification time] [SHA-1] [path]
+ *
+ * A file with the same size and modification time isn't hashed again.
+ *
+ * The image key is a hash of the image file and the image profiles, the
+ * text key a hash of the image file, the HOCR and the text layer options.
+ * A page of which only the HOCR changed keeps its encoded images, a page
+ * of which only the profiles changed keeps its text. The encoded images
+ * (profile images and G4) and the laid out text are kept in files named
+ * after their key. Images that are passed through or streamed are cheap to
+ * prepare and are taken from the file again.
+ *
+ * With a PageCache the pages that aren't in the checkpoint are looked up
+ * by their keys in the cache, and the prepared pages are added to it. The
+ * cache also keeps the compressed raster of the streamed TIFF images. A
+ * checkpoint can be opened with only a cache, without a directory of its
+ * own.
+ */
+public class PageCheckpoint {
+    private static final String MANIFEST = "manifest";
+    //the layout of the text files, it is part of the text key
+    private static final int TEXT_FORMAT = 2;
+    //a file that was modified this recently can change within the same mtime
+    private static final long RACY_MILLIS = 2000;
+
+    private static final int IMAGE_KEPT = 0;
+    private static final int IMAGE_JPEG = 1;
+    private static final int IMAGE_CCITT = 2;
+    private static final int IMAGE_RAW = 3;
+
+    private final File dir;
+    private final PageCache cache;
+    private String layerHash;
+    private final Map<Integer, String[]> entries = new HashMap<Integer, String[]>();
+    //path: size, modification time and hash
+    private final Map<String, String[]> hashes = new HashMap<String, String[]>();
+    private final Set<String> hashed = new HashSet<String>();
+    //the rasters that are held in the cache until their page is written
+    private final List<String> heldRasters = new ArrayList<String>();
+    private Writer manifest;
+    private final AtomicInteger restored = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+
+    private PageCheckpoint(File dir, PageCache cache) {
+        this.dir = dir;
+        this.cache = cache;
+    }
+
+    /**
+     * Opens the checkpoint of a document, or creates it
+     *
+     * @param output the output file of the document, or null for a
+     *        checkpoint that only uses the cache
+     * @param hocrFile the multi-page HOCR file of the document, or null
+     * @param cache the shared page cache, or null
+     * @return the checkpoint
+     * @throws IOException when the checkpoint directory can't be used
+     */
+    public static PageCheckpoint open(File output, File hocrFile, PageCache cache) throws IOException {
+        if (output == null) {
+            PageCheckpoint checkpoint = new PageCheckpoint(null, cache);
+            checkpoint.layerHash = hocrFile == null ? null : hash(hocrFile);
+            return checkpoint;
+        }
+
+        File dir = new File(output.getAbsoluteFile().getParentFile(), "." + output.getName() + ".pages");
+
+        if (! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+
+        PageCheckpoint checkpoint = new PageCheckpoint(dir, cache);
+        File file = new File(dir, MANIFEST);
+
+        if (file.isFile()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("hash ")) {
+                        String[] fields = line.split(" ", 5);
+
+                        if (fields.length == 5 && fields[3].length() == 40) {
+                            checkpoint.hashes.put(fields[4], new String[] { fields[1], fields[2], fields[3] });
+                        }
+                        continue;
+                    }
+
+                    String[] fields = line.split(" ");
+
+                    //the last line of a run that was killed can be cut off
+                    if (fields.length != 3 || ! fields[0].matches("\\d+") || fields[2].length() != 40) {
+                        continue;
+                    }
+
+                    checkpoint.entries.put(Integer.valueOf(fields[0]), new String[] { fields[1], fields[2] });
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        checkpoint.manifest = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        checkpoint.layerHash = hocrFile == null ? null : checkpoint.fileHash(hocrFile);
+
+        return checkpoint;
+    }
+
+    /**
+     * The SHA-1 of the content of a file, taken from the manifest when the
+     * file has the size and the modification time it had when it was hashed
+     *
+     * @param file the file
+     * @return the hash in hex
+     * @throws IOException when the file can't be read
+     */
+    public String fileHash(File file) throws IOException {
+        if (dir == null) {
+            return hash(file);
+        }
+
+        String path = file.getAbsolutePath();
+        String length = String.valueOf(file.length());
+        long modified = file.lastModified();
+        String[] known;
+
+        synchronized (this) {
+            known = hashes.get(path);
+            hashed.add(path);
+        }
+
+        if (known != null && known[0].equals(length) && known[1].equals(String.valueOf(modified))) {
+            return known[2];
+        }
+
+        String hash = hash(file);
+
+        if (modified > 0 && modified < System.currentTimeMillis() - RACY_MILLIS && path.indexOf('\n') < 0) {
+            String[] entry = new String[] { length, String.valueOf(modified), hash };
+
+            synchronized (this) {
+                manifest.write(hashLine(path, entry));
+                manifest.flush();
+                hashes.put(path, entry);
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * The SHA-1 of the content of a file
+     *
+     * @param file the file
+     * @return the hash in hex
+     * @throws IOException when the file can't be read
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(file);
+
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * The key of the images of a page
+     *
+     * @param imageHash the hash of the image file
+     * @param profiles the image profiles of the outputs
+     * @return the key
+     */
+    public String imageKey(String imageHash, ImageProfile[] profiles) {
+        StringBuilder sb = new StringBuilder(imageHash);
+
+        for (ImageProfile profile : profiles) {
+            sb.append(' ').append(profile.getEncoding()).append(' ').append(profile.getDpi())
+                    .append(' ').append(profile.getQuality());
+        }
+
+        return hash(sb.toString());
+    }
+
+    /**
+     * The key of the text of a page
+     *
+     * @param imageHash the hash of the image file, the text is laid out on
+     *        the size of the image
+     * @param hocrFile the HOCR file of the page, or null when there is one
+     *        for the document or none
+     * @param index the page index
+     * @return the key
+     * @throws IOException when the HOCR file can't be read
+     */
+    public String textKey(String imageHash, File hocrFile, int index) throws IOException {
+        StringBuilder sb = new StringBuilder(imageHash);
+
+        sb.append(' ').append(TEXT_FORMAT).append(' ').append(PDFCreator.textLayer).append(' ').append(PDFCreator.textRuns)
+                .append(' ').append(PDFCreator.fontFile);
+
+        if (hocrFile != null) {
+            sb.append(' ').append(fileHash(hocrFile));
+        } else if (layerHash != null) {
+            sb.append(' ').append(layerHash).append(' ').append(index);
+        }
+
+        return hash(sb.toString());
+    }
+
+    /**
+     * Looks up the text of a page
+     *
+     * @param index the page index
+     * @param textKey the text key of the page
+     * @return the file with the text, or null when the text of the page
+     *         wasn't prepared with this key
+     */
+    public File findText(int index, String textKey) {
+        return find(index, 1, "text-", textKey);
+    }
+
+    /**
+     * Looks up the images of a page
+     *
+     * @param index the page index
+     * @param imageKey the image key of the page
+     * @return the file with the images, or null when the images of the page
+     *         weren't prepared with this key
+     */
+    public File findImages(int index, String imageKey) {
+        return find(index, 0, "images-", imageKey);
+    }
+
+    private File find(int index, int field, String prefix, String key) {
+        String[] entry = getEntry(index);
+
+        if (entry != null && entry[field].equals(key)) {
+            return new File(dir, prefix + key);
+        }
+
+        return cache == null ? null : cache.get(prefix + key);
+    }
+
+    /**
+     * Reads the text of a page
+     *
+     * @param file the file of findText
+     * @return the text runs, or null for a page without text
+     * @throws IOException when the text can't be read
+     */
+    public static List<PDFTextRun> readText(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            return readRuns(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the pages of the images that were kept
+     *
+     * @param file the file of findImages
+     * @param index the page index
+     * @param filename the page image
+     * @param text the text of the page
+     * @return a page for every profile, null for the ones that take the
+     *         image from the file
+     * @throws IOException when the images can't be read
+     */
+    public static PDFPage[] readPages(File file, int index, String filename, List<PDFTextRun> text) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            PDFPage[] pages = new PDFPage[in.readInt()];
+
+            for (int k = 0 ; k < pages.length ; k++) {
+                pages[k] = readPage(in, index, filename, text);
+            }
+
+            return pages;
+        } catch (BadElementException ex) {
+            throw new IOException(ex);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the compressed raster of a streamed TIFF image from the cache,
+     * it is compressed and added when it isn't there. The file is held in
+     * the cache until releaseRasterData, or until the checkpoint is finished
+     * or closed.
+     *
+     * @param imageHash the hash of the image file
+     * @param raster the raster
+     * @return the file for TiffRaster.write, or null without a cache
+     * @throws IOException when the raster can't be compressed
+     */
+    public File getRasterData(String imageHash, TiffRaster raster) throws IOException {
+        if (cache == null) {
+            return null;
+        }
+
+        String name = "raster-" + imageHash;
+        File file;
+
+        cache.hold(name);
+
+        try {
+            file = cache.get(name);
+
+            if (file == null) {
+                File tmp = cache.createTempFile(name);
+
+                try {
+                    raster.deflateTo(tmp);
+                } catch (IOException ex) {
+                    tmp.delete();
+                    throw ex;
+                }
+
+                file = cache.put(tmp, name);
+            }
+        } catch (IOException ex) {
+            cache.release(name);
+            throw ex;
+        }
+
+        synchronized (heldRasters) {
+            heldRasters.add(name);
+        }
+
+        return file;
+    }
+
+    /**
+     * Lets the cache remove a raster of getRasterData again, after its page
+     * is written
+     *
+     * @param file the file of getRasterData, or null
+     */
+    public void releaseRasterData(File file) {
+        if (file == null || cache == null) {
+            return;
+        }
+
+        boolean removed;
+
+        synchronized (heldRasters) {
+            removed = heldRasters.remove(file.getName());
+        }
+
+        if (removed) {
+            cache.release(file.getName());
+        }
+    }
+
+    /*
+        releases the rasters of the pages that weren't written
+    */
+    private void releaseRasters() {
+        synchronized (heldRasters) {
+            for (String name : heldRasters) {
+                cache.release(name);
+            }
+            heldRasters.clear();
+        }
+    }
+
+    /**
+     * Keeps a prepared page
+     *
+     * @param index the page index
+     * @param imageKey the image key of the page
+     * @param textKey the text key of the page
+     * @param pages the prepared page for every profile
+     * @throws IOException when the checkpoint can't be written
+     */
+    public void save(int index, String imageKey, String textKey, PDFPage[] pages) throws IOException {
+        if (dir != null) {
+            File images = new File(dir, "images-" + imageKey);
+
+            if (! images.isFile()) {
+                File tmp = File.createTempFile("images-", ".tmp", dir);
+                writeImages(tmp, pages);
+                rename(tmp, images);
+            }
+
+            File text = new File(dir, "text-" + textKey);
+
+            if (! text.isFile()) {
+                File tmp = File.createTempFile("text-", ".tmp", dir);
+                writeText(tmp, pages[0].getText());
+                rename(tmp, text);
+            }
+
+            synchronized (this) {
+                //the files are complete before the line that refers to them
+                manifest.write(index + " " + imageKey + " " + textKey + "\n");
+                manifest.flush();
+                entries.put(index, new String[] { imageKey, textKey });
+            }
+        }
+
+        if (cache != null) {
+            if (! cache.contains("images-" + imageKey)) {
+                File tmp = cache.createTempFile("images-" + imageKey);
+                writeImages(tmp, pages);
+                cache.put(tmp, "images-" + imageKey);
+            }
+
+            if (! cache.contains("text-" + textKey)) {
+                File tmp = cache.createTempFile("text-" + textKey);
+                writeText(tmp, pages[0].getText());
+                cache.put(tmp, "text-" + textKey);
+            }
+        }
+
+        saved.incrementAndGet();
+    }
+
+    private static void writeImages(File file, PDFPage[] pages) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            out.writeInt(pages.length);
+
+            for (PDFPage page : pages) {
+                writeImage(out, page);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeText(File file, List<PDFTextRun> text) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            writeRuns(out, text);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Counts a page that was taken from the checkpoint or the cache
+     */
+    void restored() {
+        restored.incrementAndGet();
+    }
+
+    /**
+     * Closes the checkpoint after the document is complete. The manifest is
+     * rewritten with the pages of the document and the files that no page
+     * refers to any more are removed.
+     *
+     * @param pages the number of pages of the document
+     * @throws IOException when the manifest can't be written
+     */
+    public synchronized void finish(int pages) throws IOException {
+        releaseRasters();
+
+        if (dir == null) {
+            return;
+        }
+
+        manifest.close();
+
+        Set<String> used = new HashSet<String>();
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+
+        try {
+            for (int i = 0 ; i < pages ; i++) {
+                String[] entry = entries.get(i);
+
+                if (entry != null) {
+                    out.write(i + " " + entry[0] + " " + entry[1] + "\n");
+                    used.add("images-" + entry[0]);
+                    used.add("text-" + entry[1]);
+                }
+            }
+
+            for (String path : hashed) {
+                String[] entry = hashes.get(path);
+
+                if (entry != null) {
+                    out.write(hashLine(path, entry));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        rename(tmp, new File(dir, MANIFEST));
+
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (! file.getName().equals(MANIFEST) && ! used.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the checkpoint of a document that failed, the pages that were
+     * prepared are kept for the next run
+     */
+    public synchronized void close() {
+        releaseRasters();
+
+        if (dir == null) {
+            return;
+        }
+
+        try {
+            manifest.close();
+        } catch (IOException ex) {
+            //the lines were flushed
+        }
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public int getRestored() {
+        return restored.get();
+    }
+
+    public int getSaved() {
+        return saved.get();
+    }
+
+    private synchronized String[] getEntry(int index) {
+        return entries.get(index);
+    }
+
+    private static void writeRuns(DataOutputStream out, List<PDFTextRun> runs) throws IOException {
+        if (runs == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(runs.size());
+
+        for (PDFTextRun run : runs) {
+            out.writeFloat(run.getLlx());
+            out.writeFloat(run.getLly());
+            out.writeFloat(run.getUrx());
+            out.writeFloat(run.getUry());
+            out.writeFloat(run.getFontSize());
+            out.writeFloat(run.getSlope());
+            out.writeFloat(run.getX());
+            out.writeFloat(run.getY());
+
+            String[] texts = run.getTexts();
+            out.writeInt(texts.length);
+
+            for (int i = 0 ; i < texts.length ; i++) {
+                writeString(out, texts[i]);
+                out.writeFloat(run.getScalings()[i]);
+                out.writeFloat(run.getAdjustments()[i]);
+            }
+        }
+    }
+
+    private static List<PDFTextRun> readRuns(DataInputStream in) throws IOException {
+        int n = in.readInt();
+
+        if (n < 0) {
+            return null;
+        }
+
+        List<PDFTextRun> runs = new ArrayList<PDFTextRun>(n);
+
+        for (int r = 0 ; r < n ; r++) {
+            float llx = in.readFloat();
+            float lly = in.readFloat();
+            float urx = in.readFloat();
+            float ury = in.readFloat();
+            float fontSize = in.readFloat();
+            float slope = in.readFloat();
+            float x = in.readFloat();
+            float y = in.readFloat();
+
+            int words = in.readInt();
+            String[] texts = new String[words];
+            float[] scalings = new float[words];
+            float[] adjustments = new float[words];
+
+            for (int i = 0 ; i < words ; i++) {
+                texts[i] = readString(in);
+                scalings[i] = in.readFloat();
+                adjustments[i] = in.readFloat();
+            }
+
+            runs.add(new PDFTextRun(llx, lly, urx, ury, fontSize, slope, x, y, texts, scalings, adjustments));
+        }
+
+        return runs;
+    }
+
+    /*
+        a string as its length and its UTF-8 bytes; writeUTF can't write
+        more than 64 KB
+    */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+
+        in.readFully(bytes);
+
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String hashLine(String path, String[] entry) {
+        return "hash " + entry[0] + " " + entry[1] + " " + entry[2] + " " + path + "\n";
+    }
+
+    /*
+        only images that hold their data are kept: the images of a profile
+        and G4; the others are prepared from the file again
+    */
+    private static void writeImage(DataOutputStream out, PDFPage page) throws IOException {
+        Image image = page.getImage();
+        byte[] data = page.getRaster() == null ? image.getRawData() : null;
+
+        if (data == null || (! (image instanceof Jpeg) && ! (image instanceof ImgCCITT)
+                && ! (image instanceof ImgRaw && image.isDeflated()))) {
+            out.writeByte(IMAGE_KEPT);
+            return;
+        }
+
+        if (image instanceof Jpeg) {
+            out.writeByte(IMAGE_JPEG);
+        } else if (image instanceof ImgCCITT) {
+            out.writeByte(IMAGE_CCITT);
+        } else {
+            out.writeByte(IMAGE_RAW);
+        }
+
+        out.writeBoolean(page.isEncoded());
+        out.writeInt((int) image.getWidth());
+        out.writeInt((int) image.getHeight());
+        out.writeInt(image.getColorspace());
+        out.writeInt(image.getBpc());
+        out.writeInt(image.getDpiX());
+        out.writeInt(image.getDpiY());
+        out.writeFloat(image.getXYRatio());
+        out.writeFloat(image.getScaledWidth());
+        out.writeFloat(image.getScaledHeight());
+
+        ICC_Profile icc = image.getICCProfile();
+        byte[] iccData = icc == null ? new byte[0] : icc.getData();
+        out.writeInt(iccData.length);
+        out.write(iccData);
+
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static PDFPage readPage(DataInputStream in, int index, String filename, List<PDFTextRun> text)
+            throws IOException, BadElementException {
+        int type = in.readByte();
+
+        if (type == IMAGE_KEPT) {
+            return null;
+        }
+
+        boolean encoded = in.readBoolean();
+        int width = in.readInt();
+        int height = in.readInt();
+        int colorspace = in.readInt();
+        int bpc = in.readInt();
+        int dpiX = in.readInt();
+        int dpiY = in.readInt();
+        float xyRatio = in.readFloat();
+        float scaledWidth = in.readFloat();
+        float scaledHeight = in.readFloat();
+
+        byte[] iccData = new byte[in.readInt()];
+        in.readFully(iccData);
+
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+
+        Image image;
+
+        if (type == IMAGE_JPEG) {
+            image = Image.getInstance(data);
+        } else if (type == IMAGE_CCITT) {
+            //the CCITT type is kept as bpc, the parameters as colorspace
+            image = new ImgCCITT(width, height, false, bpc, colorspace, data);
+        } else {
+            image = new ImgRaw(width, height, colorspace, bpc, data);
+            image.setDeflated(true);
+        }
+
+        if (dpiX > 0 && dpiY > 0) {
+            image.setDpi(dpiX, dpiY);
+        }
+        if (xyRatio > 0) {
+            image.setXYRatio(xyRatio);
+        }
+        if (iccData.length > 0) {
+            image.tagICC(ICC_Profile.getInstance(iccData));
+        }
+
+        image.scaleAbsolute(scaledWidth, scaledHeight);
+
+        PDFPage page = new PDFPage(index, filename, image, text);
+
+        //it took no time this run
+        if (encoded) {
+            page.setEncodeNanos(0);
+        }
+
+        return page;
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (! from.renameTo(to)) {
+            to.delete();
+            if (! from.renameTo(to)) {
+                throw new IOException("can't rename " + from + " to " + to);
+            }
+        }
+    }
+
+    private static String hash(String s) {
+        try {
+            return toHex(newDigest().digest(s.getBytes("UTF-8")));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+}
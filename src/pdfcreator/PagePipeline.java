@@ -0,0 +1,213 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares the pages of one document on a number of worker threads while
+ * the (single) PdfWriter thread takes them in page order.
+ *
+ * Prepared pages wait in a reorder buffer. A worker that finished a page
+ * blocks as long as the buffer is over its memory ceiling, unless its page
+ * is the one the writer is waiting for. Pages are handed out to the workers
+ * in order, so the writer can always make progress.
+ */
+public class PagePipeline {
+    private final PDFCreator creator;
+    private final String[] images;
+    private final HOCRLayer layer;
+    private final ImageProfile[] profiles;
+    private final PageCheckpoint checkpoint;
+    private final int threads;
+    private final long ceiling;
+
+    private final AtomicInteger nextPage = new AtomicInteger();
+    private final Map<Integer, PDFPage[]> ready = new HashMap<Integer, PDFPage[]>();
+    private final Map<Integer, Throwable> errors = new HashMap<Integer, Throwable>();
+    private Thread[] workers;
+    private long used = 0;
+    private int nextToTake = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a new PagePipeline instance
+     *
+     * @param creator the PDFCreator that prepares the pages
+     * @param images the page images
+     * @param layer the OCR of the whole document (or null)
+     * @param profiles the image profiles of the outputs
+     * @param checkpoint the prepared pages of an earlier run (or null)
+     * @param threads the number of worker threads
+     * @param ceiling the maximum number of bytes of prepared pages in the buffer
+     */
+    public PagePipeline(PDFCreator creator, String[] images, HOCRLayer layer, ImageProfile[] profiles,
+            PageCheckpoint checkpoint, int threads, long ceiling) {
+        this.creator = creator;
+        this.images = images;
+        this.layer = layer;
+        this.profiles = profiles;
+        this.checkpoint = checkpoint;
+        this.threads = Math.max(1, Math.min(threads, images.length));
+        this.ceiling = ceiling;
+    }
+
+    /**
+     * Starts the worker threads
+     */
+    public void start() {
+        workers = new Thread[threads];
+
+        for (int i = 0 ; i < threads ; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "page-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Returns the prepared page with the given index. Pages need to be taken
+     * in order.
+     *
+     * @param index the page index
+     * @return the prepared page, one for every image profile
+     * @throws Exception when the preparation of the page failed
+     */
+    public synchronized PDFPage[] take(int index) throws Exception {
+        if (index != nextToTake) {
+            throw new IllegalStateException("expected page " + nextToTake + " not " + index);
+        }
+
+        while (! ready.containsKey(index) && ! errors.containsKey(index)) {
+            wait();
+        }
+
+        Throwable ex = errors.remove(index);
+
+        if (ex instanceof Exception) {
+            throw (Exception) ex;
+        }
+
+        //e.g. an OutOfMemoryError while a large page was decoded
+        if (ex != null) {
+            throw new ExecutionException("page " + (index + 1) + " failed: " + ex, ex);
+        }
+
+        PDFPage[] pages = ready.remove(index);
+
+        used -= sizeOf(pages);
+        nextToTake++;
+        notifyAll();
+
+        return pages;
+    }
+
+    /**
+     * Stops the workers and drops all pages that weren't taken
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            ready.clear();
+            notifyAll();
+        }
+
+        if (workers == null) {
+            return;
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        int index;
+
+        while ((index = nextPage.getAndIncrement()) < images.length) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+            }
+
+            try {
+                PDFPage[] pages = creator.preparePage(index, images[index], layer, profiles, checkpoint);
+
+                if (! put(index, pages)) {
+                    return;
+                }
+            } catch (Throwable ex) {
+                fail(index, ex);
+            }
+        }
+    }
+
+    private synchronized boolean put(int index, PDFPage[] pages) throws InterruptedException {
+        long size = sizeOf(pages);
+
+        while (! closed && index != nextToTake && used > 0 && used + size > ceiling) {
+            wait();
+        }
+
+        if (closed) {
+            return false;
+        }
+
+        ready.put(index, pages);
+        used += size;
+        notifyAll();
+
+        return true;
+    }
+
+    /*
+        the pages of the profiles that keep the image are the same object
+    */
+    private static long sizeOf(PDFPage[] pages) {
+        long size = 0;
+
+        for (int k = 0 ; k < pages.length ; k++) {
+            if (Arrays.asList(pages).indexOf(pages[k]) == k) {
+                size += pages[k].getSize();
+            }
+        }
+
+        return size;
+    }
+
+    private synchronized void fail(int index, Throwable ex) {
+        errors.put(index, ex);
+        notifyAll();
+    }
+}
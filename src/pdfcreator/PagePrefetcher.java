@@ -0,0 +1,245 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the image and HOCR files of the next pages ahead, while the current
+ * page is prepared and written, so they come from the operating system's
+ * page cache instead of from (network) storage when they are needed.
+ *
+ * Java has no posix_fadvise, the files are read through a FileChannel on a
+ * few threads and the data is dropped. At most depth pages are read ahead
+ * of the page that is prepared, and no more pages are started while the
+ * files that were read ahead and not used yet are over the budget.
+ */
+public class PagePrefetcher {
+    private static final int THREADS = 4;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final PDFCreator creator;
+    private final String[] images;
+    private final boolean hocrFiles;
+    private final int depth;
+    private final long budget;
+    private final ExecutorService pool;
+    private final List<Future<Long>> reads;
+    private final long[] readNanos;
+
+    private int next = 0;
+    private int base = 0;
+    private long ahead = 0;
+    private long bytes = 0;
+
+    private int inTime = 0;
+    private int waited = 0;
+    private int missed = 0;
+    private long waitNanos = 0;
+    private long hiddenNanos = 0;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Create a new PagePrefetcher instance
+     *
+     * @param creator the PDFCreator that finds the HOCR file of an image
+     * @param images the page images
+     * @param hocrFiles also read the HOCR file next to each image
+     * @param depth the number of pages to read ahead
+     * @param budget the number of bytes that are read ahead and not used yet
+     */
+    public PagePrefetcher(PDFCreator creator, String[] images, boolean hocrFiles, int depth, long budget) {
+        this.creator = creator;
+        this.images = images;
+        this.hocrFiles = hocrFiles;
+        this.depth = depth;
+        this.budget = budget;
+        this.reads = new ArrayList<Future<Long>>(Collections.<Future<Long>>nCopies(images.length, null));
+        this.readNanos = new long[images.length];
+        this.pool = Executors.newFixedThreadPool(Math.max(1, Math.min(depth, THREADS)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "page-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts reading the first pages
+     */
+    public synchronized void start() {
+        schedule();
+    }
+
+    /**
+     * Waits until the files of a page are read, before the page is prepared,
+     * and reads further ahead. Pages are prepared in order, but can be
+     * prepared by several threads at once.
+     *
+     * @param index the page index
+     */
+    public void await(int index) {
+        Future<Long> read;
+
+        synchronized (this) {
+            read = reads.get(index);
+
+            if (read == null) {
+                //not read ahead, and it won't be anymore
+                missed++;
+                next = Math.max(next, index + 1);
+            }
+            base = Math.max(base, index + 1);
+        }
+
+        if (read != null) {
+            boolean done = read.isDone();
+            long start = System.nanoTime();
+            long size = 0;
+
+            try {
+                size = read.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                //the page reports it when the file is read
+            } catch (CancellationException ex) {
+                //closed
+            }
+
+            long wait = System.nanoTime() - start;
+
+            synchronized (this) {
+                if (done) {
+                    inTime++;
+                    hiddenNanos += readNanos[index];
+                }
+                else {
+                    waited++;
+                    waitNanos += wait;
+                    hiddenNanos += Math.max(0, readNanos[index] - wait);
+                }
+                ahead -= size;
+                reads.set(index, null);
+            }
+        }
+
+        synchronized (this) {
+            schedule();
+        }
+    }
+
+    /*
+        starts the pages up to depth pages ahead, as long as the pages that
+        were read ahead fit in the budget; the page after the last one used
+        is always started
+    */
+    private void schedule() {
+        while (next < images.length && next < base + depth && (ahead < budget || next == base)) {
+            final int index = next++;
+
+            reads.set(index, pool.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    return read(index);
+                }
+            }));
+        }
+    }
+
+    private long read(int index) throws IOException {
+        long start = System.nanoTime();
+        File image = new File(images[index]);
+        long size = read(image);
+
+        if (hocrFiles) {
+            File hocrFile = creator.findHocrFileFor(image);
+
+            if (hocrFile != null) {
+                size += read(hocrFile);
+            }
+        }
+
+        synchronized (this) {
+            readNanos[index] = System.nanoTime() - start;
+            bytes += size;
+            ahead += size;
+        }
+
+        return size;
+    }
+
+    private static long read(File file) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        long size = 0;
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            int n;
+
+            buffer.clear();
+
+            while ((n = channel.read(buffer)) >= 0) {
+                size += n;
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+
+        return size;
+    }
+
+    /**
+     * Stops reading ahead
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("prefetch: %d pages in time, %d waited for (%.3f s), %d not read ahead, "
+                + "%.1f MB read, %.1f s of reading hidden",
+                inTime, waited, waitNanos / 1e9, missed, bytes / 1e6, hiddenNanos / 1e9);
+    }
+}
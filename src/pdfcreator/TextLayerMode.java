@@ -0,0 +1,11 @@
+package pdfcreator;
+
+/**
+ * What PDFCreator writes under the page image for the OCR text
+ *
+ * NONE: no text layer, TEXT: invisible text, DEBUG: invisible text and a
+ * rectangle around every OCR box
+ */
+public enum TextLayerMode {
+    NONE,TEXT,DEBUG;
+}
@@ -0,0 +1,1144 @@
+/*
+ *  PDFCreator - creates PDF/A files out of scanned images of textual records
+ *
+ *  Copyright (C) 2011 Patrick Hochstenbach <Patrick.Hochstenbach@gmail.com>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pdfcreator;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.ImgRaw;
+import com.itextpdf.text.pdf.ICC_Profile;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfICCBased;
+import com.itextpdf.text.pdf.PdfIndirectReference;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.codec.CCITTG4Encoder;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the raster of a TIFF image one row at a time, so a master of any
+ * size is embedded with the memory of a few rows.
+ *
+ * Only the first directory is read. The strips or tiles are read from a
+ * FileChannel and decompressed as they are needed: uncompressed, LZW,
+ * Deflate and PackBits data, with or without a horizontal predictor.
+ * Bitonal images are compressed to CCITT G4 while they are read, the
+ * others are written as a Flate stream straight into the PDF when the page
+ * is written.
+ *
+ * Other TIFF images (JPEG or CCITT compressed, palettes, 16 bit samples,
+ * alpha channels, planar data, rotated) are left to iText.
+ */
+public class TiffRaster {
+    private static final int NEW_SUBFILE_TYPE = 254;
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC = 262;
+    private static final int FILL_ORDER = 266;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int ORIENTATION = 274;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int X_RESOLUTION = 282;
+    private static final int Y_RESOLUTION = 283;
+    private static final int PLANAR_CONFIGURATION = 284;
+    private static final int RESOLUTION_UNIT = 296;
+    private static final int PREDICTOR = 317;
+    private static final int TILE_WIDTH = 322;
+    private static final int TILE_LENGTH = 323;
+    private static final int TILE_OFFSETS = 324;
+    private static final int TILE_BYTE_COUNTS = 325;
+    private static final int EXTRA_SAMPLES = 338;
+    private static final int SAMPLE_FORMAT = 339;
+
+    private static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_LZW = 5;
+    private static final int COMPRESSION_ADOBE_DEFLATE = 8;
+    private static final int COMPRESSION_PACKBITS = 32773;
+    private static final int COMPRESSION_DEFLATE = 32946;
+
+    private static final int PHOTOMETRIC_WHITE_IS_ZERO = 0;
+    private static final int PHOTOMETRIC_BLACK_IS_ZERO = 1;
+    private static final int PHOTOMETRIC_RGB = 2;
+    private static final int PHOTOMETRIC_SEPARATED = 5;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private int width;
+    private int height;
+    private int bitsPerSample = 1;
+    private int samplesPerPixel = 1;
+    private int compression = COMPRESSION_NONE;
+    private int photometric = -1;
+    private int fillOrder = 1;
+    private int predictor = 1;
+    private int rowsPerStrip = Integer.MAX_VALUE;
+    private int tileWidth;
+    private int tileLength;
+    private long[] offsets;
+    private long[] byteCounts;
+    private int dpiX;
+    private int dpiY;
+    private float xyRatio;
+    private ICC_Profile icc;
+
+    private TiffRaster(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the header of a TIFF image
+     *
+     * @param filename the image
+     * @return the raster, or null when the image isn't a TIFF or isn't one
+     *         that is read here
+     * @throws IOException when the image can't be read
+     */
+    public static TiffRaster open(String filename) throws IOException {
+        TiffRaster raster = new TiffRaster(new File(filename));
+
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+
+        try {
+            if (! raster.readDirectory(channel)) {
+                return null;
+            }
+        } finally {
+            channel.close();
+        }
+
+        byte[] profile = ColorProfileProbe.probe(raster.file);
+
+        if (profile != null) {
+            try {
+                ICC_Profile icc = ICC_Profile.getInstance(profile);
+                //a profile of another color space is ignored, as iText does
+                if (icc.getNumComponents() == raster.samplesPerPixel) {
+                    raster.icc = icc;
+                }
+            } catch (IllegalArgumentException ex) {
+                System.err.println("warning: " + filename + ": invalid color profile: " + ex.getMessage());
+            }
+        }
+
+        return raster;
+    }
+
+    /*
+        reads the tags of the first directory, in a classic or a BigTIFF file,
+        and tells whether the image can be read here
+    */
+    private boolean readDirectory(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 16);
+
+        if (header.remaining() < 8) {
+            return false;
+        }
+
+        short order = header.getShort(0);
+
+        if (order == 0x4949) {
+            header.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (order != 0x4D4D) {
+            return false;
+        }
+
+        int magic = header.getShort(2) & 0xFFFF;
+        boolean big = magic == 43;
+        long ifd;
+
+        if (magic == 42) {
+            ifd = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (big && header.remaining() >= 16) {
+            ifd = header.getLong(8);
+        } else {
+            return false;
+        }
+
+        int countSize = big ? 8 : 2;
+        int entrySize = big ? 20 : 12;
+
+        ByteBuffer count = read(channel, ifd, countSize).order(header.order());
+
+        if (count.remaining() < countSize) {
+            return false;
+        }
+
+        long entries = big ? count.getLong(0) : count.getShort(0) & 0xFFFF;
+
+        if (entries <= 0 || entries > 4096) {
+            return false;
+        }
+
+        ByteBuffer directory = read(channel, ifd + countSize, (int) entries * entrySize).order(header.order());
+
+        long[] xResolution = null;
+        long[] yResolution = null;
+        int unit = 2;
+        int planar = 1;
+
+        for (int i = 0 ; i < entries ; i++) {
+            int position = i * entrySize;
+
+            if (position + entrySize > directory.limit()) {
+                return false;
+            }
+
+            int tag = directory.getShort(position) & 0xFFFF;
+            long[] values = readValues(channel, directory, position, big);
+
+            if (values == null || values.length == 0) {
+                continue;
+            }
+
+            switch (tag) {
+                case NEW_SUBFILE_TYPE:
+                    break;
+                case IMAGE_WIDTH:
+                    width = (int) values[0];
+                    break;
+                case IMAGE_LENGTH:
+                    height = (int) values[0];
+                    break;
+                case BITS_PER_SAMPLE:
+                    bitsPerSample = (int) values[0];
+                    for (long value : values) {
+                        if (value != bitsPerSample) {
+                            return false;
+                        }
+                    }
+                    break;
+                case COMPRESSION:
+                    compression = (int) values[0];
+                    break;
+                case PHOTOMETRIC:
+                    photometric = (int) values[0];
+                    break;
+                case FILL_ORDER:
+                    fillOrder = (int) values[0];
+                    break;
+                case STRIP_OFFSETS:
+                case TILE_OFFSETS:
+                    offsets = values;
+                    break;
+                case ORIENTATION:
+                    if (values[0] != 1) {
+                        return false;
+                    }
+                    break;
+                case SAMPLES_PER_PIXEL:
+                    samplesPerPixel = (int) values[0];
+                    break;
+                case ROWS_PER_STRIP:
+                    rowsPerStrip = (int) Math.min(values[0], Integer.MAX_VALUE);
+                    break;
+                case STRIP_BYTE_COUNTS:
+                case TILE_BYTE_COUNTS:
+                    byteCounts = values;
+                    break;
+                case X_RESOLUTION:
+                    xResolution = values;
+                    break;
+                case Y_RESOLUTION:
+                    yResolution = values;
+                    break;
+                case PLANAR_CONFIGURATION:
+                    planar = (int) values[0];
+                    break;
+                case RESOLUTION_UNIT:
+                    unit = (int) values[0];
+                    break;
+                case PREDICTOR:
+                    predictor = (int) values[0];
+                    break;
+                case TILE_WIDTH:
+                    tileWidth = (int) values[0];
+                    break;
+                case TILE_LENGTH:
+                    tileLength = (int) values[0];
+                    break;
+                case EXTRA_SAMPLES:
+                    return false;
+                case SAMPLE_FORMAT:
+                    if (values[0] != 1) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (width <= 0 || height <= 0 || offsets == null || byteCounts == null
+                || offsets.length != byteCounts.length || planar != 1) {
+            return false;
+        }
+
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZW
+                && compression != COMPRESSION_ADOBE_DEFLATE && compression != COMPRESSION_DEFLATE
+                && compression != COMPRESSION_PACKBITS) {
+            return false;
+        }
+
+        boolean bitonal = bitsPerSample == 1 && samplesPerPixel == 1
+                && (photometric == PHOTOMETRIC_WHITE_IS_ZERO || photometric == PHOTOMETRIC_BLACK_IS_ZERO);
+        boolean gray = bitsPerSample == 8 && samplesPerPixel == 1
+                && (photometric == PHOTOMETRIC_WHITE_IS_ZERO || photometric == PHOTOMETRIC_BLACK_IS_ZERO);
+        boolean color = bitsPerSample == 8
+                && ((samplesPerPixel == 3 && photometric == PHOTOMETRIC_RGB)
+                || (samplesPerPixel == 4 && photometric == PHOTOMETRIC_SEPARATED));
+
+        if (! bitonal && ! gray && ! color) {
+            return false;
+        }
+        if (predictor != 1 && (predictor != 2 || bitsPerSample != 8)) {
+            return false;
+        }
+        if (fillOrder != 1 && (fillOrder != 2 || ! bitonal)) {
+            return false;
+        }
+
+        if (isTiled()) {
+            if (tileLength <= 0) {
+                return false;
+            }
+            long across = (width + tileWidth - 1) / tileWidth;
+            long down = (height + tileLength - 1) / tileLength;
+            if (offsets.length < across * down) {
+                return false;
+            }
+        } else {
+            if (rowsPerStrip <= 0 || rowsPerStrip > height) {
+                rowsPerStrip = height;
+            }
+            if (offsets.length < (height + (long) rowsPerStrip - 1) / rowsPerStrip) {
+                return false;
+            }
+        }
+
+        if (xResolution != null && yResolution != null) {
+            if (unit == 1) {
+                xyRatio = getRational(xResolution) / getRational(yResolution);
+            } else {
+                dpiX = getDpi(xResolution, unit);
+                dpiY = getDpi(yResolution, unit);
+            }
+        }
+
+        return true;
+    }
+
+    /*
+        the values of one directory entry: inline or at an offset
+    */
+    private long[] readValues(FileChannel channel, ByteBuffer directory, int position, boolean big) throws IOException {
+        int type = directory.getShort(position + 2) & 0xFFFF;
+        long count = big ? directory.getLong(position + 4) : directory.getInt(position + 4) & 0xFFFFFFFFL;
+        int size;
+
+        switch (type) {
+            case 1:  //BYTE
+            case 7:  //UNDEFINED
+                size = 1;
+                break;
+            case 3:  //SHORT
+                size = 2;
+                break;
+            case 4:  //LONG
+            case 13: //IFD
+                size = 4;
+                break;
+            case 5:  //RATIONAL
+                size = 8;
+                break;
+            case 16: //LONG8
+            case 18: //IFD8
+                size = 8;
+                break;
+            default:
+                return null;
+        }
+
+        //the ICC profile and the like are not needed as numbers
+        if (count <= 0 || count > 1 << 24 || (size == 1 && count > 4)) {
+            return null;
+        }
+
+        int length = (int) count * size;
+        int inline = big ? 8 : 4;
+        ByteBuffer data;
+
+        if (length <= inline) {
+            data = directory.duplicate().order(directory.order());
+            data.position(position + (big ? 12 : 8));
+            data = data.slice().order(directory.order());
+        } else {
+            long offset = big ? directory.getLong(position + 12) : directory.getInt(position + 8) & 0xFFFFFFFFL;
+            data = read(channel, offset, length).order(directory.order());
+            if (data.remaining() < length) {
+                return null;
+            }
+        }
+
+        if (type == 5) {
+            //a rational is two LONGs, the numerator and the denominator
+            long[] values = new long[(int) count * 2];
+
+            for (int i = 0 ; i < count ; i++) {
+                values[i * 2] = data.getInt(i * 8) & 0xFFFFFFFFL;
+                values[i * 2 + 1] = data.getInt(i * 8 + 4) & 0xFFFFFFFFL;
+            }
+
+            return values;
+        }
+
+        long[] values = new long[(int) count];
+
+        for (int i = 0 ; i < values.length ; i++) {
+            switch (size) {
+                case 1:
+                    values[i] = data.get(i) & 0xFF;
+                    break;
+                case 2:
+                    values[i] = data.getShort(i * 2) & 0xFFFF;
+                    break;
+                case 8:
+                    values[i] = data.getLong(i * 8);
+                    break;
+                default:
+                    values[i] = data.getInt(i * 4) & 0xFFFFFFFFL;
+                    break;
+            }
+        }
+
+        return values;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static float getRational(long[] value) {
+        return value.length < 2 || value[1] == 0 ? 0 : (float) value[0] / value[1];
+    }
+
+    private static int getDpi(long[] value, int unit) {
+        float dpi = getRational(value);
+
+        if (unit == 3) {
+            dpi *= 2.54f;
+        }
+
+        return (int) (dpi + 0.5);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    /**
+     * getRowLength
+     *
+     * @return the number of bytes of a row of the raster
+     */
+    public int getRowLength() {
+        return getRowLength(width);
+    }
+
+    /**
+     * isWhiteIsZero
+     *
+     * @return true when 0 is white instead of black (photometric
+     *         interpretation 0)
+     */
+    public boolean isWhiteIsZero() {
+        return photometric == PHOTOMETRIC_WHITE_IS_ZERO;
+    }
+
+    /**
+     * isBitonal
+     *
+     * @return true for a black and white image, which is compressed to
+     *         CCITT G4
+     */
+    public boolean isBitonal() {
+        return bitsPerSample == 1;
+    }
+
+    private boolean isTiled() {
+        return tileWidth > 0;
+    }
+
+    private int getRowLength(int pixels) {
+        return (int) (((long) pixels * samplesPerPixel * bitsPerSample + 7) / 8);
+    }
+
+    /**
+     * Compresses a bitonal image to CCITT G4, one strip at a time
+     *
+     * @return the image
+     * @throws IOException when the image can't be read
+     * @throws BadElementException when the image can't be created
+     */
+    public Image encodeG4() throws IOException, BadElementException {
+        CCITTG4Encoder encoder = new CCITTG4Encoder(width);
+        InputStream rows = openRows();
+
+        try {
+            int rowLength = getRowLength(width);
+            int band = Math.max(1, BUFFER_SIZE / rowLength);
+            byte[] buffer = new byte[band * rowLength];
+
+            for (int y = 0 ; y < height ; y += band) {
+                int n = Math.min(band, height - y);
+                readFully(rows, buffer, n * rowLength);
+                encoder.fax4Encode(buffer, 0, n * rowLength);
+            }
+        } finally {
+            rows.close();
+        }
+
+        Image img = Image.getInstance(width, height, false, Image.CCITTG4,
+                photometric == PHOTOMETRIC_BLACK_IS_ZERO ? Image.CCITT_BLACKIS1 : 0, encoder.close());
+
+        setImageProperties(img);
+
+        return img;
+    }
+
+    /**
+     * Returns the image to place on the page. It holds no data: call write
+     * to add the raster to the document.
+     *
+     * @return the image
+     * @throws BadElementException when the image can't be created
+     */
+    public Image getImage() throws BadElementException {
+        //not Image.getInstance: it would compress a bitonal image to G4
+        Image img = new ImgRaw(width, height, samplesPerPixel, bitsPerSample, null);
+
+        setImageProperties(img);
+
+        return img;
+    }
+
+    private void setImageProperties(Image img) {
+        if (dpiX > 0 && dpiY > 0) {
+            img.setDpi(dpiX, dpiY);
+        }
+        if (xyRatio > 0) {
+            img.setXYRatio(xyRatio);
+        }
+        if (icc != null) {
+            img.tagICC(icc);
+        }
+    }
+
+    /**
+     * Writes the raster as a Flate compressed image, reading and
+     * compressing it while it is written to the output
+     *
+     * @param writer the PdfWriter
+     * @return the reference of the image, for Image.setDirectReference
+     * @throws IOException when the image can't be read or written
+     */
+    public PdfIndirectReference write(PdfWriter writer) throws IOException {
+        return write(writer, null);
+    }
+
+    /**
+     * Writes the raster as a Flate compressed image
+     *
+     * @param writer the PdfWriter
+     * @param deflated the raster compressed by deflateTo, copied as it is,
+     *        or null to compress the raster while it is written. When the
+     *        file is gone the raster is compressed.
+     * @return the reference of the image, for Image.setDirectReference
+     * @throws IOException when the image can't be read or written
+     */
+    public PdfIndirectReference write(PdfWriter writer, File deflated) throws IOException {
+        InputStream in = null;
+
+        if (deflated != null) {
+            try {
+                in = new FileInputStream(deflated);
+            } catch (FileNotFoundException ex) {
+                //e.g. evicted from the page cache
+            }
+        }
+
+        boolean compressed = in != null;
+
+        if (! compressed) {
+            in = openRows();
+        }
+
+        try {
+            PdfStream stream = new PdfStream(in, writer);
+
+            stream.put(PdfName.TYPE, PdfName.XOBJECT);
+            stream.put(PdfName.SUBTYPE, PdfName.IMAGE);
+            stream.put(PdfName.WIDTH, new PdfNumber(width));
+            stream.put(PdfName.HEIGHT, new PdfNumber(height));
+            stream.put(PdfName.BITSPERCOMPONENT, new PdfNumber(bitsPerSample));
+
+            if (icc != null) {
+                PdfICCBased profile = new PdfICCBased(icc, writer.getCompressionLevel());
+                PdfArray colorspace = new PdfArray(PdfName.ICCBASED);
+                colorspace.add(writer.addToBody(profile).getIndirectReference());
+                stream.put(PdfName.COLORSPACE, colorspace);
+            } else if (samplesPerPixel == 4) {
+                stream.put(PdfName.COLORSPACE, PdfName.DEVICECMYK);
+            } else if (samplesPerPixel == 3) {
+                stream.put(PdfName.COLORSPACE, PdfName.DEVICERGB);
+            } else {
+                stream.put(PdfName.COLORSPACE, PdfName.DEVICEGRAY);
+            }
+
+            if (photometric == PHOTOMETRIC_WHITE_IS_ZERO) {
+                stream.put(PdfName.DECODE, new PdfArray(new float[] { 1, 0 }));
+            }
+
+            if (compressed) {
+                stream.put(PdfName.FILTER, PdfName.FLATEDECODE);
+            } else {
+                stream.flateCompress(writer.getCompressionLevel());
+            }
+
+            PdfIndirectReference ref = writer.addToBody(stream).getIndirectReference();
+            stream.writeLength();
+
+            return ref;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compresses the raster into a file, the way write compresses it at the
+     * default compression level
+     *
+     * @param file the file
+     * @throws IOException when the image can't be read or the file written
+     */
+    public void deflateTo(File file) throws IOException {
+        InputStream rows = openRows();
+
+        try {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            OutputStream out = new DeflaterOutputStream(new FileOutputStream(file), deflater, BUFFER_SIZE);
+
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = rows.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+                deflater.end();
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Opens the decompressed raster, row after row from top to bottom
+     *
+     * @return the rows
+     * @throws IOException when the image can't be opened
+     */
+    public InputStream openRows() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        return isTiled() ? new TileRows(channel) : new StripRows(channel);
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int done = 0;
+
+        while (done < length) {
+            int n = in.read(buffer, done, length - done);
+            if (n < 0) {
+                throw new EOFException("image data ends too early");
+            }
+            done += n;
+        }
+    }
+
+    /*
+        the decompressed data of one strip or tile
+    */
+    private InputStream openSegment(FileChannel channel, int index) {
+        InputStream in = new ChannelInputStream(channel, offsets[index], byteCounts[index]);
+
+        switch (compression) {
+            case COMPRESSION_LZW:
+                return new LZWInputStream(in);
+            case COMPRESSION_ADOBE_DEFLATE:
+            case COMPRESSION_DEFLATE:
+                return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE);
+            case COMPRESSION_PACKBITS:
+                return new PackBitsInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /*
+        undoes the horizontal predictor and the reversed bit order of a row
+    */
+    private void decodeRow(byte[] row, int length) {
+        if (predictor == 2) {
+            for (int i = samplesPerPixel ; i < length ; i++) {
+                row[i] += row[i - samplesPerPixel];
+            }
+        }
+        if (fillOrder == 2) {
+            for (int i = 0 ; i < length ; i++) {
+                row[i] = (byte) (Integer.reverse(row[i] & 0xFF) >>> 24);
+            }
+        }
+    }
+
+    /*
+        rows that are served one at a time out of a buffer
+    */
+    private abstract class Rows extends InputStream {
+        protected final FileChannel channel;
+        protected byte[] buffer = new byte[0];
+        protected int position;
+        protected int limit;
+        protected int y;
+
+        Rows(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        protected abstract boolean fill() throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && ! fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && ! fill()) {
+                return -1;
+            }
+
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private class StripRows extends Rows {
+        private final int rowLength = getRowLength(width);
+        private InputStream strip;
+        private int stripRows;
+
+        StripRows(FileChannel channel) {
+            super(channel);
+            buffer = new byte[rowLength];
+        }
+
+        @Override
+        protected boolean fill() throws IOException {
+            if (y == height) {
+                return false;
+            }
+
+            if (stripRows == 0) {
+                if (strip != null) {
+                    strip.close();
+                }
+                strip = openSegment(channel, y / rowsPerStrip);
+                stripRows = Math.min(rowsPerStrip, height - y);
+            }
+
+            readFully(strip, buffer, rowLength);
+            decodeRow(buffer, rowLength);
+
+            stripRows--;
+            y++;
+            position = 0;
+            limit = rowLength;
+
+            return true;
+        }
+    }
+
+    /*
+        the tiles of one row of tiles are decompressed into a band of rows
+    */
+    private class TileRows extends Rows {
+        private final int rowLength = getRowLength(width);
+        private final int tileRowLength = getRowLength(tileWidth);
+        private final int across = (width + tileWidth - 1) / tileWidth;
+        private final byte[] tileRow = new byte[tileRowLength];
+
+        TileRows(FileChannel channel) {
+            super(channel);
+            buffer = new byte[rowLength * tileLength];
+        }
+
+        @Override
+        protected boolean fill() throws IOException {
+            if (y == height) {
+                return false;
+            }
+
+            int rows = Math.min(tileLength, height - y);
+
+            for (int x = 0 ; x < across ; x++) {
+                InputStream tile = openSegment(channel, (y / tileLength) * across + x);
+
+                try {
+                    int start = getRowLength(x * tileWidth);
+                    int length = Math.min(tileRowLength, rowLength - start);
+
+                    for (int row = 0 ; row < rows ; row++) {
+                        readFully(tile, tileRow, tileRowLength);
+                        decodeRow(tileRow, tileRowLength);
+                        System.arraycopy(tileRow, 0, buffer, row * rowLength + start, length);
+                    }
+                } finally {
+                    tile.close();
+                }
+            }
+
+            y += rows;
+            position = 0;
+            limit = rows * rowLength;
+
+            return true;
+        }
+    }
+
+    /*
+        a part of the file, read through a buffer
+    */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+        private long remaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            this.buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, length)));
+            this.buffer.flip();
+        }
+
+        private boolean fill() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+
+            int n = channel.read(buffer, position);
+
+            if (n <= 0) {
+                return false;
+            }
+
+            position += n;
+            remaining -= n;
+            buffer.flip();
+
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (! buffer.hasRemaining() && ! fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (! buffer.hasRemaining() && ! fill()) {
+                return -1;
+            }
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+
+            return n;
+        }
+    }
+
+    /*
+        TIFF LZW: MSB first codes of 9 to 12 bits, with the early change of
+        the code length
+    */
+    private static class LZWInputStream extends InputStream {
+        private static final int CLEAR = 256;
+        private static final int EOI = 257;
+
+        private final InputStream in;
+        private final int[] prefix = new int[4096];
+        private final byte[] suffix = new byte[4096];
+        private final byte[] first = new byte[4096];
+        private final int[] length = new int[4096];
+        private final byte[] string = new byte[4096];
+        private int stringPosition;
+        private int stringLimit;
+        private int next;
+        private int bits;
+        private int old = -1;
+        private int bitBuffer;
+        private int bitCount;
+        private boolean done;
+
+        LZWInputStream(InputStream in) {
+            this.in = in;
+
+            for (int i = 0 ; i < 256 ; i++) {
+                prefix[i] = -1;
+                suffix[i] = (byte) i;
+                first[i] = (byte) i;
+                length[i] = 1;
+            }
+
+            clear();
+        }
+
+        private void clear() {
+            next = 258;
+            bits = 9;
+            old = -1;
+        }
+
+        private int nextCode() throws IOException {
+            while (bitCount < bits) {
+                int b = in.read();
+                if (b < 0) {
+                    return EOI;
+                }
+                bitBuffer = (bitBuffer << 8) | b;
+                bitCount += 8;
+            }
+
+            bitCount -= bits;
+
+            return (bitBuffer >>> bitCount) & ((1 << bits) - 1);
+        }
+
+        private void add(int code, byte b) {
+            if (next < 4096) {
+                prefix[next] = code;
+                suffix[next] = b;
+                first[next] = first[code];
+                length[next] = length[code] + 1;
+                next++;
+            }
+
+            if (next == 511) {
+                bits = 10;
+            } else if (next == 1023) {
+                bits = 11;
+            } else if (next == 2047) {
+                bits = 12;
+            }
+        }
+
+        private void output(int code) {
+            int n = length[code];
+
+            for (int i = n - 1 ; i >= 0 ; i--) {
+                string[i] = suffix[code];
+                code = prefix[code];
+            }
+
+            stringPosition = 0;
+            stringLimit = n;
+        }
+
+        private boolean decode() throws IOException {
+            if (done) {
+                return false;
+            }
+
+            int code = nextCode();
+
+            if (code == CLEAR) {
+                clear();
+                code = nextCode();
+            }
+
+            if (code == EOI) {
+                done = true;
+                return false;
+            }
+
+            if (old == -1) {
+                if (code >= 256) {
+                    throw new IOException("invalid LZW data");
+                }
+                output(code);
+            } else if (code < next) {
+                output(code);
+                add(old, first[code]);
+            } else if (code == next) {
+                add(old, first[old]);
+                output(code);
+            } else {
+                throw new IOException("invalid LZW code " + code);
+            }
+
+            old = code;
+
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (stringPosition == stringLimit && ! decode()) {
+                return -1;
+            }
+            return string[stringPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = 0;
+
+            while (n < len) {
+                if (stringPosition == stringLimit && ! decode()) {
+                    break;
+                }
+
+                int count = Math.min(len - n, stringLimit - stringPosition);
+                System.arraycopy(string, stringPosition, b, off + n, count);
+                stringPosition += count;
+                n += count;
+            }
+
+            return n == 0 && len > 0 ? -1 : n;
+        }
+    }
+
+    private static class PackBitsInputStream extends InputStream {
+        private final InputStream in;
+        private int literal;
+        private int repeat;
+        private int value;
+
+        PackBitsInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (literal == 0 && repeat == 0) {
+                int header = in.read();
+
+                if (header < 0) {
+                    return -1;
+                }
+
+                header = (byte) header;
+
+                if (header >= 0) {
+                    literal = header + 1;
+                } else if (header != -128) {
+                    value = in.read();
+                    if (value < 0) {
+                        return -1;
+                    }
+                    repeat = 1 - header;
+                }
+            }
+
+            if (literal > 0) {
+                literal--;
+                return in.read();
+            }
+
+            repeat--;
+
+            return value;
+        }
+    }
+}